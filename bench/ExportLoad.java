@@ -0,0 +1,80 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Load generator for TrainingSet on its own, without playing games.
+ * Producer threads append records of random boards to a temp directory,
+ * then a Reader scans them in order and samples them at random; reports
+ * records per second for each.
+ * Usage: java ExportLoad [records] [producers]
+ * @author Alan Huynh
+ */
+
+final class ExportLoad {
+    private static final Game.Direction[] DIRECTIONS = Game.Direction.values();
+
+    private ExportLoad() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        long records = args.length > 0 ? Long.parseLong(args[0]) : 100000000L;
+        int producers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Path directory = Files.createTempDirectory("2048-training");
+
+        long start = System.nanoTime();
+        try (TrainingSet set = new TrainingSet(directory)) {
+            ExecutorService pool = Executors.newFixedThreadPool(producers);
+            List<Future<?>> workers = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                long count = records / producers + (p < records % producers ? 1 : 0);
+                long seed = p;
+                workers.add(pool.submit(() -> {
+                    Random randy = new Random(seed);
+                    try (TrainingSet.Producer producer = set.producer()) {
+                        for (long i = 0; i < count; i++) {
+                            long board = randy.nextLong() | 1L;
+                            producer.add(board, DIRECTIONS[(int) i & 3], (int) i & 0xFFFF, board + 1, (i & 63) == 0);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+            pool.shutdown();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("wrote %d records from %d producers in %.2f s: %.1f M records/s, %.0f MB/s%n",
+                records, producers, secs, records / secs / 1e6, records * TrainingSet.RECORD_BYTES / secs / 1e6);
+
+        TrainingSet.Reader reader = new TrainingSet.Reader(directory);
+        start = System.nanoTime();
+        long valid = 0;
+        long sum = 0;
+        for (long r = 0; r < reader.size(); r++) {
+            if (reader.isValid(r)) {
+                valid++;
+                sum += reader.reward(r) + reader.direction(r).ordinal();
+            }
+        }
+        secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("scanned %d records (%d valid) in %.2f s: %.1f M records/s (checksum %d)%n",
+                reader.size(), valid, secs, reader.size() / secs / 1e6, sum);
+
+        Random randy = new Random(1);
+        long samples = Math.min(records, 10000000L);
+        start = System.nanoTime();
+        for (long i = 0; i < samples; i++) {
+            sum += reader.next(reader.sample(randy));
+        }
+        secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("sampled %d records in %.2f s: %.1f M records/s (checksum %d)%n",
+                samples, secs, samples / secs / 1e6, sum);
+    }
+}
@@ -0,0 +1,59 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Scaling check for Mcts: searches the same seeded mid-game boards with 1, 2,
+ * 4, ... worker threads and reports rollouts per second and the speedup over
+ * one thread.
+ * Usage: java MctsScaling [max threads] [ms per move]
+ * @author Alan Huynh
+ */
+
+final class MctsScaling {
+    private static final long SEED = 2048L;
+    private static final int POSITIONS = 64;
+
+    private MctsScaling() {
+    }
+
+    public static void main(String[] args) {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        long budget = (args.length > 1 ? Long.parseLong(args[1]) : 20) * 1000000L;
+
+        Random randy = new Random(SEED);
+        MovePolicy policy = MovePolicy.random();
+        List<Long> positions = new ArrayList<>();
+        while (positions.size() < POSITIONS) {
+            Bitboard game = new Bitboard(randy);
+            for (int moves = 0; moves < 60 && !game.checkLost(); moves++) {
+                game.shift(policy.choose(game.getBoard(), randy));
+            }
+            if (!game.checkLost()) {
+                positions.add(game.getBoard());
+            }
+        }
+
+        double single = 0;
+        for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(threads * 2, maxThreads)
+                : threads + 1) {
+            long rollouts = 0;
+            long start;
+            try (Mcts mcts = new Mcts(budget, threads)) {
+                mcts.search(positions.get(0), budget, SEED); // warm up
+                start = System.nanoTime();
+                for (int i = 0; i < positions.size(); i++) {
+                    rollouts += mcts.search(positions.get(i), budget, SEED + i).rollouts;
+                }
+            }
+            double rate = rollouts / ((System.nanoTime() - start) / 1e9);
+            if (threads == 1) {
+                single = rate;
+            }
+            System.out.printf("%3d threads: %10.0f rollouts/s, %5.2fx%n", threads, rate, rate / single);
+        }
+        try (Mcts mcts = new Mcts(budget, maxThreads)) {
+            System.out.println(mcts.search(positions.get(0), budget, SEED));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Load generator for GameServer.
+ * Starts a server in this JVM, opens the given number of sessions and reports
+ * the heap they take, then has client threads send random moves to random
+ * sessions for a fixed time and reports move latency percentiles.
+ * Usage: java ServerLoad [sessions] [clients] [seconds]
+ * @author Alan Huynh
+ */
+
+final class ServerLoad {
+    private static final String[] DIRECTIONS = {"up", "down", "left", "right"};
+
+    private ServerLoad() {
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Sends one request and reads the reply fully, so the connection is reused.
+     */
+    private static void request(String base, String method, String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(base + path).openConnection();
+        connection.setRequestMethod(method);
+        int status = connection.getResponseCode();
+        byte[] buffer = new byte[512];
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            while (in.read(buffer) != -1) {
+                // drain
+            }
+        }
+        if (status != 200) {
+            throw new IOException(method + " " + path + " returned " + status);
+        }
+    }
+
+    /**
+     * Random moves until the deadline.
+     * @return latency of every move in nanoseconds
+     */
+    private static long[] client(String base, int sessions, long deadline) throws IOException {
+        ThreadLocalRandom randy = ThreadLocalRandom.current();
+        long[] latencies = new long[1024];
+        int count = 0;
+        while (System.nanoTime() < deadline) {
+            String path = "/move?id=" + (1 + randy.nextInt(sessions)) + "&dir=" + DIRECTIONS[randy.nextInt(4)];
+            long start = System.nanoTime();
+            request(base, "POST", path);
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = System.nanoTime() - start;
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+
+        long heapBefore = usedHeap();
+        GameServer server = new GameServer(0, sessions); // room for every session, so none spill
+        server.start();
+        String base = "http://localhost:" + server.getPort();
+        for (int i = 0; i < sessions; i++) {
+            request(base, "POST", "/new?size=4&seed=" + i);
+        }
+        long perSession = Math.max(1, (usedHeap() - heapBefore) / sessions);
+        System.out.printf("%d sessions, %d bytes each, %.0f sessions per GB of heap%n",
+                server.sessionCount(), perSession, (double) (1L << 30) / perSession);
+
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        long start = System.nanoTime();
+        long deadline = start + (long) (seconds * 1e9);
+        List<Future<long[]>> results = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            results.add(pool.submit(() -> client(base, sessions, deadline)));
+        }
+        long[] all = new long[0];
+        try {
+            for (Future<long[]> result : results) {
+                long[] latencies = result.get();
+                int at = all.length;
+                all = Arrays.copyOf(all, at + latencies.length);
+                System.arraycopy(latencies, 0, all, at, latencies.length);
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Client failed", e.getCause());
+        } finally {
+            pool.shutdown();
+            server.stop();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        Arrays.sort(all);
+        System.out.printf("%d moves from %d clients in %.1f s: %.0f moves/s%n", all.length, clients, secs,
+                all.length / secs);
+        System.out.printf("move latency p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                percentile(all, 0.50) / 1e6, percentile(all, 0.99) / 1e6, all[all.length - 1] / 1e6);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, (long) (sorted.length * p))];
+    }
+}
@@ -0,0 +1,52 @@
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Load generator for SessionStore on its own, without HTTP.
+ * Creates sessions, reports the heap they take, then plays random moves on
+ * random sessions; with more sessions than resident slots, every miss
+ * faults a session in from the spill file and evicts another.
+ * Usage: java StoreLoad [sessions] [resident] [moves]
+ * @author Alan Huynh
+ */
+
+final class StoreLoad {
+    private StoreLoad() {
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int resident = args.length > 1 ? Integer.parseInt(args[1]) : sessions;
+        long moves = args.length > 2 ? Long.parseLong(args[2]) : 10000000L;
+
+        long heapBefore = usedHeap();
+        SessionStore store = new SessionStore(resident, Files.createTempDirectory("2048-sessions"));
+        SessionStore.Position position = new SessionStore.Position();
+        long start = System.nanoTime();
+        for (long id = 1; id <= sessions; id++) {
+            store.create(id, id, position);
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        long heap = usedHeap() - heapBefore;
+        System.out.printf("%d sessions in %.2f s, %d resident, %d spilled, %.1f MB heap (%.1f B per resident)%n",
+                sessions, secs, store.resident(), store.spilled(), heap / 1e6, (double) heap / store.resident());
+
+        Random randy = new Random(sessions);
+        Game.Direction[] directions = Game.Direction.values();
+        start = System.nanoTime();
+        for (long i = 0; i < moves; i++) {
+            store.move(1 + randy.nextInt(sessions), directions[randy.nextInt(4)], position);
+        }
+        secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d random moves in %.2f s: %.0f moves/s, %d spilled%n",
+                moves, secs, moves / secs, store.spilled());
+    }
+}
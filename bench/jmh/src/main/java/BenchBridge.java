@@ -0,0 +1,199 @@
+import benchmarks.GameBridge;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * GameBridge over the game's own classes, see there.
+ * @author Alan Huynh
+ */
+
+public final class BenchBridge implements GameBridge {
+    private static final Game.Direction[] DIRECTIONS = Game.Direction.values();
+
+    private long[] boards;
+    private int[] scores;
+    private final Bitboard engine = new Bitboard(new Random(SEED));
+    private final Random randy = new Random(SEED);
+    private final MovePolicy policy = MovePolicy.random();
+    private long[] batchSeeds;
+    private int[] batchDirections;
+    private BatchEngine batch;
+    private Journal journal;
+    private final ArrayBoard replay = new ArrayBoard(4);
+    private int gameSize;
+    private Engine game;
+    private List<GameLoop.Snapshot> snapshots;
+    private BoardCanvas canvas;
+    private Graphics2D g2;
+
+    @Override
+    public void makeFixtures(int count) {
+        Random fixtureRandy = new Random(SEED);
+        List<long[]> positions = new ArrayList<>();
+        while (positions.size() < count * 4) {
+            Bitboard game = new Bitboard(fixtureRandy);
+            while (!game.checkLost()) {
+                game.shift(policy.choose(game.getBoard(), fixtureRandy));
+                positions.add(new long[] {game.getBoard(), game.getScore()});
+            }
+        }
+        boards = new long[count];
+        scores = new int[count];
+        for (int i = 0; i < count; i++) {
+            long[] position = positions.get(fixtureRandy.nextInt(positions.size()));
+            boards[i] = position[0];
+            scores[i] = (int) position[1];
+        }
+    }
+
+    @Override
+    public long move(int i, int direction) {
+        return Bitboard.move(boards[i], DIRECTIONS[direction]);
+    }
+
+    @Override
+    public long shift(int i, int direction) {
+        engine.load(boards[i], scores[i]);
+        engine.shift(DIRECTIONS[direction]);
+        return engine.getBoard();
+    }
+
+    @Override
+    public long spawn(int i) {
+        engine.load(boards[i], 0);
+        engine.spawn();
+        return engine.getBoard();
+    }
+
+    @Override
+    public long transpose(int i) {
+        return Bitboard.transpose(boards[i]);
+    }
+
+    @Override
+    public boolean checkLost(int i) {
+        return Bitboard.checkLost(boards[i]);
+    }
+
+    @Override
+    public boolean checkWon(int i) {
+        return Bitboard.checkWon(boards[i]);
+    }
+
+    @Override
+    public int playout(int i) {
+        engine.load(boards[i], scores[i]);
+        while (!engine.checkLost()) {
+            engine.shift(policy.choose(engine.getBoard(), randy));
+        }
+        return engine.getScore();
+    }
+
+    @Override
+    public void startBatch(int games) {
+        if (batchSeeds == null || batchSeeds.length != games) {
+            batchSeeds = new long[games];
+            batchDirections = new int[games];
+            for (int g = 0; g < games; g++) {
+                batchSeeds[g] = Rng.streamSeed(SEED, g);
+            }
+        }
+        batch = new BatchEngine(batchSeeds);
+    }
+
+    @Override
+    public boolean batchWoundDown() {
+        int done = 0;
+        for (boolean lost : batch.getDone()) {
+            done += lost ? 1 : 0;
+        }
+        return done * 2 > batch.size();
+    }
+
+    @Override
+    public int stepBatch(int step) {
+        for (int g = 0; g < batchDirections.length; g++) {
+            batchDirections[g] = (step + g) & 3;
+        }
+        int sum = 0;
+        for (int gained : batch.step(batchDirections)) {
+            sum += gained;
+        }
+        return sum;
+    }
+
+    @Override
+    public int recordJournal() {
+        Game.Direction[] preference = {Game.Direction.LEFT, Game.Direction.DOWN,
+                Game.Direction.RIGHT, Game.Direction.UP};
+        Bitboard game = new Bitboard(new Random(SEED));
+        journal = new Journal(SEED, game);
+        while (!game.checkLost()) {
+            for (Game.Direction direction : preference) {
+                if (game.shift(direction)) {
+                    journal.record(direction, game.getLastSpawn(), game);
+                    break;
+                }
+            }
+        }
+        return journal.length();
+    }
+
+    @Override
+    public int verifyJournal() {
+        journal.verify();
+        return journal.length();
+    }
+
+    @Override
+    public long seekJournal(int move) {
+        journal.seek(move % (journal.length() + 1), replay);
+        return replay.getScore();
+    }
+
+    @Override
+    public void startGame(int size) {
+        gameSize = size;
+        game = Engine.create(size, randy);
+    }
+
+    @Override
+    public int shiftGame() {
+        if (game.checkLost()) {
+            game = Engine.create(gameSize, randy);
+        }
+        game.shift(DIRECTIONS[randy.nextInt(4)]);
+        return game.getScore();
+    }
+
+    @Override
+    public int startPainting(int squareSize) {
+        Random moves = new Random(SEED);
+        GameLoop loop = new GameLoop(4, () -> { });
+        snapshots = new ArrayList<>();
+        while (snapshots.size() < 64) {
+            long command = loop.latest().lost ? loop.reset() : loop.move(DIRECTIONS[moves.nextInt(4)]);
+            while (loop.latest().applied < command) {
+                Thread.yield();
+            }
+            if (loop.latest().direction != null) {
+                snapshots.add(loop.latest());
+            }
+        }
+        canvas = new BoardCanvas(4, snapshots.get(0), squareSize);
+        canvas.setSize(squareSize * 4, squareSize * 4);
+        g2 = new BufferedImage(squareSize * 4, squareSize * 4, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        return snapshots.size();
+    }
+
+    @Override
+    public int paint(int i, long elapsed) {
+        GameLoop.Snapshot snapshot = snapshots.get(i);
+        canvas.drawOffscreen(g2, snapshot, elapsed);
+        return snapshot.score;
+    }
+}
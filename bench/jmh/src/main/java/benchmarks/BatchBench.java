@@ -0,0 +1,58 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BatchEngine.step over a batch of seeded games. The batch is restarted
+ * outside the measured time once half its games are lost, so every step
+ * measured moves mostly live games.
+ * @author Alan Huynh
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BatchBench {
+    @Param({"4096"})
+    public int games;
+
+    private GameBridge game;
+    private int step;
+
+    @Setup
+    public void setUp() {
+        game = GameBridge.create(1);
+        game.startBatch(games);
+    }
+
+    /**
+     * Per invocation, which JMH advises against for short benchmarks; a step
+     * of thousands of games takes far longer than the per-invocation overhead.
+     */
+    @Setup(Level.Invocation)
+    public void restartWoundDown() {
+        if (game.batchWoundDown()) {
+            game.startBatch(games);
+        }
+    }
+
+    @Benchmark
+    public int step() {
+        return game.stepBatch(step++);
+    }
+}
@@ -0,0 +1,66 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Spawns, win/loss checks and random playouts on the 4x4 engine,
+ * over the same seeded board fixtures every run.
+ * @author Alan Huynh
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EngineBench {
+    private static final int FIXTURES = 1 << 10;
+
+    private GameBridge game;
+    private int next; // fixture to use next
+
+    @Setup
+    public void setUp() {
+        game = GameBridge.create(FIXTURES);
+    }
+
+    private int fixture() {
+        return next++ & (FIXTURES - 1);
+    }
+
+    @Benchmark
+    public long spawn() {
+        return game.spawn(fixture());
+    }
+
+    @Benchmark
+    public long transpose() {
+        return game.transpose(fixture());
+    }
+
+    @Benchmark
+    public boolean checkLost() {
+        return game.checkLost(fixture());
+    }
+
+    @Benchmark
+    public boolean checkWon() {
+        return game.checkWon(fixture());
+    }
+
+    @Benchmark
+    public int playout() {
+        return game.playout(fixture());
+    }
+}
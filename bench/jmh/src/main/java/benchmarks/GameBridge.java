@@ -0,0 +1,112 @@
+package benchmarks;
+
+/**
+ * What the benchmarks call into the game. The game's classes are
+ * package-private in the default package, which JMH does not allow
+ * benchmarks in and no named package can see, so BenchBridge implements
+ * this from the default package and benchmarks reach it through here.
+ * Every method works on fixture i, one of a fixed set of seeded boards.
+ * @author Alan Huynh
+ */
+public interface GameBridge {
+    long SEED = 2048L;
+
+    /**
+     * @return a bridge with its board fixtures made from SEED
+     */
+    static GameBridge create(int fixtures) {
+        try {
+            GameBridge bridge = (GameBridge) Class.forName("BenchBridge").getDeclaredConstructor().newInstance();
+            bridge.makeFixtures(fixtures);
+            return bridge;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchBridge is missing from the benchmark jar", e);
+        }
+    }
+
+    /**
+     * Plays seeded random games and keeps boards from across the whole game,
+     * so fixtures cover empty, mid-game and nearly full positions.
+     */
+    void makeFixtures(int count);
+
+    /**
+     * Bitboard.move, without spawning.
+     */
+    long move(int i, int direction);
+
+    /**
+     * Bitboard.shift on an engine loaded with the fixture: move, score and spawn.
+     */
+    long shift(int i, int direction);
+
+    long spawn(int i);
+
+    /**
+     * Bitboard.transpose, which replaced Game.rotate.
+     */
+    long transpose(int i);
+
+    boolean checkLost(int i);
+
+    boolean checkWon(int i);
+
+    /**
+     * @return final score of random moves from the fixture until the game is lost
+     */
+    int playout(int i);
+
+    /**
+     * Starts a BatchEngine of the given number of seeded games.
+     */
+    void startBatch(int games);
+
+    /**
+     * @return true once half the batch's games are lost, so it should be restarted
+     */
+    boolean batchWoundDown();
+
+    /**
+     * Moves every game of the batch once, each in its own direction.
+     * @return sum of the score deltas
+     */
+    int stepBatch(int step);
+
+    /**
+     * Records a seeded game that prefers LEFT, DOWN, RIGHT, UP.
+     * @return its number of moves
+     */
+    int recordJournal();
+
+    /**
+     * Replays the whole recorded journal.
+     */
+    int verifyJournal();
+
+    /**
+     * @return score after seeking the recorded journal to a move
+     */
+    long seekJournal(int move);
+
+    /**
+     * Starts a game of the given size, with Engine.create.
+     */
+    void startGame(int size);
+
+    /**
+     * One random move on the running game, starting a new one once it is lost.
+     * @return score
+     */
+    int shiftGame();
+
+    /**
+     * Makes snapshots of a seeded game and a BoardCanvas to draw them offscreen.
+     * @return number of snapshots
+     */
+    int startPainting(int squareSize);
+
+    /**
+     * Draws snapshot i with BoardCanvas into an offscreen image, the given time into its animation.
+     */
+    int paint(int i, long elapsed);
+}
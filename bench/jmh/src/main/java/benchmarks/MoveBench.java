@@ -0,0 +1,56 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Moves in each direction on the 4x4 engine, with and without the spawn and
+ * score of a full shift, over the same seeded board fixtures every run.
+ * @author Alan Huynh
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MoveBench {
+    private static final int FIXTURES = 1 << 10;
+
+    /** Direction.ordinal(): UP, DOWN, LEFT, RIGHT */
+    @Param({"0", "1", "2", "3"})
+    public int direction;
+
+    private GameBridge game;
+    private int next; // fixture to use next
+
+    @Setup
+    public void setUp() {
+        game = GameBridge.create(FIXTURES);
+    }
+
+    private int fixture() {
+        return next++ & (FIXTURES - 1);
+    }
+
+    @Benchmark
+    public long move() {
+        return game.move(fixture(), direction);
+    }
+
+    @Benchmark
+    public long shift() {
+        return game.shift(fixture(), direction);
+    }
+}
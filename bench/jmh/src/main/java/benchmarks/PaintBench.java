@@ -0,0 +1,51 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Offscreen frames of BoardCanvas, which draws the board: settled frames,
+ * and frames halfway through a slide. Runs headless.
+ * @author Alan Huynh
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PaintBench {
+    /** 700px window / squareSizeScale */
+    @Param({"116"})
+    public int squareSize;
+
+    /** Nanoseconds into the animation: 45 ms is mid-slide, 1 s is settled */
+    @Param({"45000000", "1000000000"})
+    public long elapsed;
+
+    private GameBridge game;
+    private int snapshots;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        game = GameBridge.create(1);
+        snapshots = game.startPainting(squareSize);
+    }
+
+    @Benchmark
+    public int frame() {
+        return game.paint(next++ % snapshots, elapsed);
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.function.Supplier;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR events around the timed hot paths, one type per Metrics histogram, so a
+ * recording (-XX:StartFlightRecording) shows each shift, high score read and
+ * write, UI update and frame next to the JVM's own events. Each thread reuses
+ * one event object per type, so timing a call allocates nothing. Built only on
+ * JDK 11+, and loaded by Metrics when metrics are on.
+ * @author Alan Huynh
+ */
+
+final class JfrEvents implements Metrics.Events {
+    @Name("game2048.Shift")
+    @Label("Shift")
+    @Category("2048")
+    @Description("Game.shift, the spawn and history included")
+    static final class Shift extends Event {
+    }
+
+    @Name("game2048.ScoreLoad")
+    @Label("High Score Load")
+    @Category("2048")
+    @Description("ScoreStore reading the high score file")
+    static final class ScoreLoad extends Event {
+    }
+
+    @Name("game2048.ScoreSave")
+    @Label("High Score Save")
+    @Category("2048")
+    @Description("ScoreStore writing the high score file")
+    static final class ScoreSave extends Event {
+    }
+
+    @Name("game2048.Present")
+    @Label("UI Update")
+    @Category("2048")
+    @Description("GameUI showing a snapshot on the EDT")
+    static final class Present extends Event {
+    }
+
+    @Name("game2048.Frame")
+    @Label("Canvas Frame")
+    @Category("2048")
+    @Description("BoardCanvas rendering one frame")
+    static final class Frame extends Event {
+    }
+
+    @Override
+    public Metrics.EventType type(String name) {
+        switch (name) {
+            case "game.shift":
+                return new Type(Shift::new);
+            case "score.load":
+                return new Type(ScoreLoad::new);
+            case "score.save":
+                return new Type(ScoreSave::new);
+            case "ui.present":
+                return new Type(Present::new);
+            case "canvas.frame":
+                return new Type(Frame::new);
+            default:
+                return null;
+        }
+    }
+
+    private static final class Type implements Metrics.EventType {
+        private final ThreadLocal<Event> events;
+
+        Type(Supplier<Event> factory) {
+            events = ThreadLocal.withInitial(factory);
+        }
+
+        @Override
+        public void begin() {
+            events.get().begin();
+        }
+
+        @Override
+        public void commit() {
+            events.get().commit();
+        }
+    }
+}
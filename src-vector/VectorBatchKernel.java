@@ -0,0 +1,82 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * BatchEngine moves with the incubating Vector API, one game per long lane.
+ * The lanes transpose boards for UP and DOWN and split them into RowTable
+ * indices; the table lookups themselves stay scalar, as JDK 17's indexed
+ * gathers came out slower than plain loads. Built only on JDK 17+, and
+ * loaded by BatchEngine only when jdk.incubator.vector is present.
+ * @author Alan Huynh
+ */
+
+final class VectorBatchKernel implements BatchEngine.Kernel {
+    private static final Game.Direction[] DIRECTIONS = Game.Direction.values();
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(LONGS.vectorBitSize() / 2));
+    private static final int LANES = LONGS.length();
+    private static final int ROWS = 1 << 16;
+
+    /** RowTable.LEFT then RowTable.RIGHT, so one index picks table and row. */
+    private static final char[] MOVES = new char[2 * ROWS];
+
+    static {
+        System.arraycopy(RowTable.LEFT, 0, MOVES, 0, ROWS);
+        System.arraycopy(RowTable.RIGHT, 0, MOVES, ROWS, ROWS);
+    }
+
+    @Override
+    public void move(long[] boards, int[] directions, long[] moved, int[] gained) {
+        int[] lines = new int[4 * LANES]; // per call, as one kernel serves every engine
+        int[] score = RowTable.SCORE;
+        int bound = LONGS.loopBound(boards.length);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            LongVector board = LongVector.fromArray(LONGS, boards, i);
+            LongVector direction = (LongVector) IntVector.fromArray(INTS, directions, i)
+                    .convertShape(VectorOperators.I2L, LONGS, 0);
+            VectorMask<Long> vertical = direction.lt(2); // UP and DOWN move columns
+            LongVector table = direction.and(1).lanewise(VectorOperators.LSHL, 16); // DOWN and RIGHT use RIGHT
+            LongVector rows = board.blend(transpose(board), vertical);
+            for (int k = 0; k < 4; k++) {
+                IntVector line = (IntVector) rows.lanewise(VectorOperators.LSHR, 16 * k).and(ROWS - 1).or(table)
+                        .convertShape(VectorOperators.L2I, INTS, 0);
+                line.intoArray(lines, k * LANES);
+            }
+            for (int lane = 0; lane < LANES; lane++) {
+                int l0 = lines[lane];
+                int l1 = lines[LANES + lane];
+                int l2 = lines[2 * LANES + lane];
+                int l3 = lines[3 * LANES + lane];
+                moved[i + lane] = MOVES[l0] | (long) MOVES[l1] << 16
+                        | (long) MOVES[l2] << 32 | (long) MOVES[l3] << 48;
+                gained[i + lane] = score[l0 & ROWS - 1] + score[l1 & ROWS - 1]
+                        + score[l2 & ROWS - 1] + score[l3 & ROWS - 1];
+            }
+            LongVector after = LongVector.fromArray(LONGS, moved, i);
+            after.blend(transpose(after), vertical).intoArray(moved, i);
+        }
+        for (; i < boards.length; i++) {
+            Game.Direction direction = DIRECTIONS[directions[i]];
+            moved[i] = Bitboard.move(boards[i], direction);
+            gained[i] = Bitboard.moveScore(boards[i], direction);
+        }
+    }
+
+    /**
+     * Bitboard.transpose, lane by lane.
+     */
+    private static LongVector transpose(LongVector board) {
+        LongVector a = board.and(0xF0F00F0FF0F00F0FL)
+                .or(board.and(0x0000F0F00000F0F0L).lanewise(VectorOperators.LSHL, 12))
+                .or(board.and(0x0F0F00000F0F0000L).lanewise(VectorOperators.LSHR, 12));
+        return a.and(0xFF00FF0000FF00FFL)
+                .or(a.and(0x00FF00FF00000000L).lanewise(VectorOperators.LSHR, 24))
+                .or(a.and(0x00000000FF00FF00L).lanewise(VectorOperators.LSHL, 24));
+    }
+}
@@ -0,0 +1,305 @@
+import java.util.Random;
+
+/**
+ * 2048 board logic for any size, one byte per cell.
+ * Cell (r, c) holds the tile's exponent at index r * size + c, 0 where empty.
+ * Every move walks each line from the edge it moves towards. Lines of up to
+ * four cells below 2^15 are packed into a 16-bit row and moved with one
+ * RowTable lookup; longer lines are merged in a single pass over the array.
+ * Tiles go up to Tile.MAX_POW, which is never merged further.
+ * Every write keeps a per-exponent tile count and the empty-cell mask in
+ * step, and legal moves are rescanned once per move, so win, loss and max
+ * tile queries are plain reads.
+ * @author Alan Huynh
+ */
+
+final class ArrayBoard extends Engine {
+    static final int MAX_POW = Tile.MAX_POW;
+
+    private final int size;
+    private final byte[] cells;
+    private final byte[] line; // scratch for the line being merged
+    private final Random randy;
+    private final int[] counts = new int[MAX_POW + 1]; // tiles of each exponent, [0] is empty cells
+    private long empty; // bit set for every empty cell
+    private int legal; // bit Direction.ordinal() set for every move that changes the board
+    private boolean changed; // a cell changed during the current move
+    private int lastSpawn;
+    private int score;
+
+    /**
+     * Starts a new game with two random tiles.
+     */
+    ArrayBoard(int size, Random randy) {
+        this(size, randy, 2);
+    }
+
+    /**
+     * An empty board to load positions into; shift must not be called.
+     */
+    ArrayBoard(int size) {
+        this(size, null, 0);
+    }
+
+    private ArrayBoard(int size, Random randy, int toGen) {
+        checkSize(size);
+        this.size = size;
+        this.cells = new byte[size * size];
+        this.line = new byte[size];
+        this.randy = randy;
+        this.counts[0] = cells.length;
+        this.empty = -1L >>> (64 - cells.length);
+        while (toGen > 0) {
+            int rand = randy.nextInt(cells.length);
+            if (cells[rand] == 0) {
+                store(rand, isFour() ? 2 : 1);
+                toGen--;
+            }
+        }
+        legal = scanLegalMoves();
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    int getPow(int row, int col) {
+        return cells[row * size + col];
+    }
+
+    @Override
+    int getScore() {
+        return score;
+    }
+
+    @Override
+    int maxPow() {
+        for (int pow = MAX_POW; pow > 0; pow--) {
+            if (counts[pow] != 0) {
+                return pow;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    int legalMoves() {
+        return legal;
+    }
+
+    @Override
+    boolean shift(Game.Direction direction) {
+        if (!moveCells(direction)) {
+            return false;
+        }
+        spawn();
+        legal = scanLegalMoves();
+        return true;
+    }
+
+    @Override
+    boolean slide(Game.Direction direction) {
+        if (!moveCells(direction)) {
+            return false;
+        }
+        legal = scanLegalMoves();
+        return true;
+    }
+
+    private boolean moveCells(Game.Direction direction) {
+        changed = false;
+        if ((legal & (1 << direction.ordinal())) == 0) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            switch (direction) {
+                case UP:
+                    moveLine(i, size);
+                    break;
+                case DOWN:
+                    moveLine((size - 1) * size + i, -size);
+                    break;
+                case RIGHT:
+                    moveLine(i * size + size - 1, -1);
+                    break;
+                default:
+                    moveLine(i * size, 1);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Compresses one line towards its first cell.
+     * @param start index of the cell at the edge being moved towards
+     * @param step index distance to the next cell along the line
+     */
+    private void moveLine(int start, int step) {
+        if (size <= 4) {
+            int row = 0;
+            boolean packable = true;
+            for (int j = 0, i = start; j < size; j++, i += step) {
+                int pow = cells[i];
+                packable &= pow < Bitboard.MAX_POW; // merges stay within a nibble
+                row |= pow << (j << 2);
+            }
+            if (packable) {
+                int moved = RowTable.LEFT[row];
+                if (moved != row) {
+                    score += RowTable.SCORE[row];
+                    for (int j = 0, i = start; j < size; j++, i += step) {
+                        store(i, (moved >>> (j << 2)) & 0xF);
+                    }
+                }
+                return;
+            }
+        }
+        int filled = 0;
+        int pending = 0;
+        for (int j = 0, i = start; j < size; j++, i += step) {
+            int pow = cells[i];
+            if (pow == 0) {
+                continue;
+            }
+            if (pow == pending && pow < MAX_POW) {
+                line[filled++] = (byte) (pow + 1);
+                score += 1 << (pow + 1);
+                pending = 0;
+            } else {
+                if (pending != 0) {
+                    line[filled++] = (byte) pending;
+                }
+                pending = pow;
+            }
+        }
+        if (pending != 0) {
+            line[filled++] = (byte) pending;
+        }
+        for (int j = 0, i = start; j < size; j++, i += step) {
+            store(i, j < filled ? line[j] : 0);
+        }
+    }
+
+    private void store(int cell, int pow) {
+        int old = cells[cell];
+        if (old != pow) {
+            cells[cell] = (byte) pow;
+            counts[old]--;
+            counts[pow]++;
+            empty ^= (old == 0 || pow == 0) ? 1L << cell : 0L;
+            changed = true;
+        }
+    }
+
+    @Override
+    void place(int cell, int pow) {
+        store(cell, pow);
+        legal = scanLegalMoves();
+    }
+
+    /**
+     * A line can move towards its start if a tile has a gap before it, and
+     * towards its end if a tile has a gap after it; either way if two
+     * neighbours merge.
+     * @return bit Direction.ordinal() set for every direction that changes the board
+     */
+    private int scanLegalMoves() {
+        int moves = 0;
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                int pow = cells[r * size + c];
+                if (c + 1 < size) {
+                    moves |= pairMoves(pow, cells[r * size + c + 1]) << 2; // LEFT, RIGHT
+                }
+                if (r + 1 < size) {
+                    moves |= pairMoves(pow, cells[(r + 1) * size + c]); // UP, DOWN
+                }
+            }
+            if (moves == 0xF) {
+                break; // every direction already moves
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * @return bit 0 if moving towards first changes the pair, bit 1 if towards second does
+     */
+    private static int pairMoves(int first, int second) {
+        if (first == 0) {
+            return second == 0 ? 0 : 1;
+        }
+        if (second == 0) {
+            return 2;
+        }
+        return (first == second && first < MAX_POW) ? 3 : 0;
+    }
+
+    /**
+     * Generates a 10 percent chance
+     */
+    private boolean isFour() {
+        return randy.nextInt(10) == 5;
+    }
+
+    /**
+     * Spawns a single tile in a uniformly chosen empty cell, if possible.
+     */
+    private void spawn() {
+        if (empty == 0) {
+            return;
+        }
+        int cell = nthSetBit(empty, randy.nextInt(counts[0]));
+        int pow = isFour() ? 2 : 1;
+        store(cell, pow);
+        lastSpawn = (cell << 4) | pow;
+    }
+
+    @Override
+    boolean checkWon() {
+        return counts[11] != 0;
+    }
+
+    /**
+     * Check if lost: no direction changes the board.
+     */
+    @Override
+    boolean checkLost() {
+        return legal == 0;
+    }
+
+    @Override
+    int getLastSpawn() {
+        return lastSpawn;
+    }
+
+    /**
+     * Eight cells per long, one byte each.
+     */
+    @Override
+    int snapshotWords() {
+        return (cells.length + 7) >>> 3;
+    }
+
+    @Override
+    void save(long[] words, int offset) {
+        for (int w = 0; w < snapshotWords(); w++) {
+            long word = 0L;
+            for (int b = 0; b < 8 && (w << 3) + b < cells.length; b++) {
+                word |= (long) cells[(w << 3) + b] << (b << 3);
+            }
+            words[offset + w] = word;
+        }
+    }
+
+    @Override
+    void load(long[] words, int offset, int score) {
+        for (int i = 0; i < cells.length; i++) {
+            store(i, (int) (words[offset + (i >>> 3)] >>> ((i & 7) << 3)) & 0xFF);
+        }
+        this.score = score;
+        legal = scanLegalMoves();
+    }
+}
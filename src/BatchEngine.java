@@ -0,0 +1,178 @@
+/**
+ * Plays many 4x4 games in lockstep, for bulk evaluation.
+ * State is kept as structure-of-arrays: packed boards, scores, RNG states and
+ * done flags each sit in one contiguous primitive array, indexed by game.
+ * Board i plays exactly like a Bitboard driven by new Rng(seeds[i]): the same
+ * starting tiles, moves, spawns and losses, draw for draw.
+ * Moves and scores go through a Kernel: VectorBatchKernel (src-vector, built
+ * on JDK 17+) when jdk.incubator.vector is on the module path, else the
+ * scalar one. Spawns and loss checks are always scalar, to keep the draws.
+ * @author Alan Huynh
+ */
+
+final class BatchEngine {
+    private static final Game.Direction[] DIRECTIONS = Game.Direction.values();
+
+    /**
+     * Moves a batch of boards without spawning.
+     */
+    interface Kernel {
+        /**
+         * Sets moved[i] to Bitboard.move and gained[i] to Bitboard.moveScore
+         * of boards[i] in directions[i], for every game, done or not.
+         */
+        void move(long[] boards, int[] directions, long[] moved, int[] gained);
+    }
+
+    static final Kernel SCALAR = (boards, directions, moved, gained) -> {
+        for (int i = 0; i < boards.length; i++) {
+            Game.Direction direction = DIRECTIONS[directions[i]];
+            moved[i] = Bitboard.move(boards[i], direction);
+            gained[i] = Bitboard.moveScore(boards[i], direction);
+        }
+    };
+
+    /** VectorBatchKernel, or null if it was not built or the module is missing. */
+    static final Kernel VECTOR = loadVector();
+
+    private final Kernel kernel;
+    private final long[] boards;
+    private final int[] scores;
+    private final long[] rngStates;
+    private final int[] scoreDeltas;
+    private final boolean[] done;
+    private final long[] moved;
+    private final int[] gained;
+
+    /**
+     * Starts one game per seed, each with two random tiles.
+     * @param seeds Rng seed of every game
+     */
+    BatchEngine(long[] seeds) {
+        this(seeds, VECTOR != null ? VECTOR : SCALAR);
+    }
+
+    BatchEngine(long[] seeds, Kernel kernel) {
+        this.kernel = kernel;
+        int count = seeds.length;
+        boards = new long[count];
+        scores = new int[count];
+        rngStates = seeds.clone();
+        scoreDeltas = new int[count];
+        done = new boolean[count];
+        moved = new long[count];
+        gained = new int[count];
+        for (int i = 0; i < count; i++) {
+            int toGen = 2;
+            while (toGen > 0) {
+                int cell = nextInt(i, 16);
+                if (Bitboard.getPow(boards[i], cell) == 0) {
+                    boards[i] = Bitboard.setPow(boards[i], cell, nextInt(i, 10) == 5 ? 2 : 1);
+                    toGen--;
+                }
+            }
+        }
+    }
+
+    int size() {
+        return boards.length;
+    }
+
+    /**
+     * Moves every game that is not done, as Game.shift does: spawn a tile if
+     * anything moved, then check for a loss.
+     * @param directions Direction.ordinal() to move each game in
+     * @return score gained by each game, owned by this engine and overwritten
+     *     by the next step
+     */
+    int[] step(int[] directions) {
+        if (directions.length != boards.length) {
+            throw new IllegalArgumentException("Expected " + boards.length + " directions, got " + directions.length);
+        }
+        for (int direction : directions) {
+            if (direction < 0 || direction >= DIRECTIONS.length) {
+                throw new IllegalArgumentException("No direction " + direction);
+            }
+        }
+        kernel.move(boards, directions, moved, gained);
+        for (int i = 0; i < boards.length; i++) {
+            scoreDeltas[i] = 0;
+            if (done[i] || moved[i] == boards[i]) {
+                continue;
+            }
+            scoreDeltas[i] = gained[i];
+            scores[i] += gained[i];
+            boards[i] = spawn(i, moved[i]);
+            done[i] = Bitboard.checkLost(boards[i]);
+        }
+        return scoreDeltas;
+    }
+
+    private static Kernel loadVector() {
+        try {
+            return (Kernel) Class.forName("VectorBatchKernel").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null; // built for Java 8, or run without --add-modules jdk.incubator.vector
+        }
+    }
+
+    /**
+     * Same draws as Bitboard.spawn: which empty cell, then whether it is a 4.
+     */
+    private long spawn(int i, long board) {
+        long empty = Bitboard.emptyMask(board);
+        if (empty == 0) {
+            return board;
+        }
+        for (int skip = nextInt(i, Long.bitCount(empty)); skip > 0; skip--) {
+            empty &= empty - 1;
+        }
+        int cell = Long.numberOfTrailingZeros(empty) >>> 2;
+        return Bitboard.setPow(board, cell, nextInt(i, 10) == 5 ? 2 : 1);
+    }
+
+    /**
+     * java.util.Random.nextInt(bound) over game i's Rng state.
+     */
+    private int nextInt(int i, int bound) {
+        int r = next31(i);
+        int m = bound - 1;
+        if ((bound & m) == 0) {
+            return (int) ((bound * (long) r) >> 31);
+        }
+        for (int u = r; u - (r = u % bound) + m < 0; u = next31(i)) {
+            // reject the biased top of the range, as Random does
+        }
+        return r;
+    }
+
+    private int next31(int i) {
+        return (int) (Rng.mix(rngStates[i] += Rng.GOLDEN_GAMMA) >>> 33);
+    }
+
+    long getBoard(int i) {
+        return boards[i];
+    }
+
+    int getScore(int i) {
+        return scores[i];
+    }
+
+    long getRngState(int i) {
+        return rngStates[i];
+    }
+
+    /**
+     * @return true once game i has no legal move
+     */
+    boolean isDone(int i) {
+        return done[i];
+    }
+
+    /**
+     * @return done flag of every game, owned by this engine
+     */
+    boolean[] getDone() {
+        return done;
+    }
+}
@@ -0,0 +1,358 @@
+import java.util.Random;
+
+/**
+ * 2048 board logic on a packed board.
+ * Each cell holds the tile's exponent (Tile.getPow()) in a 4-bit nibble of a
+ * single long: cell (r, c) lives at nibble 4 * r + c, so every row is one
+ * 16-bit chunk with column 0 in its lowest nibble. An empty cell is 0.
+ * A nibble tops out at 2^15, so two 32768 tiles are not merged here.
+ * The empty-cell mask, legal moves, max tile and win flag are refreshed
+ * whenever the board changes, so querying them costs nothing.
+ * @author Alan Huynh
+ */
+
+final class Bitboard extends Engine {
+    static final int MAX_POW = 15;
+    private static final long ROW_MASK = 0xFFFFL;
+    private static final long NIBBLE_LOW_BITS = 0x1111111111111111L;
+
+    private final Random randy;
+    private long board;
+    private int lastSpawn; // (cell << 4) | pow of the last spawned tile
+    private int score;
+    private long empty; // low bit of every empty nibble
+    private int legal; // bit Direction.ordinal() set for every move that changes the board
+    private int maxPow;
+    private boolean won;
+
+    Bitboard(Random randy) {
+        this.randy = randy;
+        this.board = 0L;
+        this.score = 0;
+        initializeBoard();
+        refresh();
+    }
+
+    /**
+     * Starts from a given position instead of two random tiles.
+     * @param randy random source for spawns, may be null if shift is never called
+     */
+    Bitboard(Random randy, long board, int score) {
+        this.randy = randy;
+        this.board = board;
+        this.score = score;
+        refresh();
+    }
+
+    /**
+     * Loads two tiles on the board to initialize.
+     */
+    private void initializeBoard() {
+        int toGen = 2;
+        while (toGen > 0) {
+            int rand = randy.nextInt(16);
+            if (getPow(board, rand) == 0) {
+                board = setPow(board, rand, isFour() ? 2 : 1);
+                toGen--;
+            }
+        }
+    }
+
+    @Override
+    int size() {
+        return 4;
+    }
+
+    long getBoard() {
+        return board;
+    }
+
+    /**
+     * Replaces the position, e.g. with a saved or fixture board.
+     */
+    void load(long board, int score) {
+        this.board = board;
+        this.score = score;
+        this.maxPow = 0; // may have gone down
+        refresh();
+    }
+
+    @Override
+    int getScore() {
+        return score;
+    }
+
+    @Override
+    int getPow(int row, int col) {
+        return getPow(board, row * 4 + col);
+    }
+
+    @Override
+    int maxPow() {
+        return maxPow;
+    }
+
+    @Override
+    int legalMoves() {
+        return legal;
+    }
+
+    @Override
+    int snapshotWords() {
+        return 1;
+    }
+
+    @Override
+    void save(long[] words, int offset) {
+        words[offset] = board;
+    }
+
+    @Override
+    void load(long[] words, int offset, int score) {
+        load(words[offset], score);
+    }
+
+    /**
+     * Moves the board in the given direction and spawns a tile if anything
+     * actually moved.
+     * @param direction direction to move
+     * @return true if the board changed
+     */
+    @Override
+    boolean shift(Game.Direction direction) {
+        if (!moveBoard(direction)) {
+            return false;
+        }
+        spawnTile();
+        refresh();
+        return true;
+    }
+
+    @Override
+    boolean slide(Game.Direction direction) {
+        if (!moveBoard(direction)) {
+            return false;
+        }
+        refresh();
+        return true;
+    }
+
+    private boolean moveBoard(Game.Direction direction) {
+        if ((legal & (1 << direction.ordinal())) == 0) {
+            return false;
+        }
+        long moved = move(board, direction);
+        score += moveScore(board, direction);
+        board = moved;
+        empty = emptyMask(moved);
+        return true;
+    }
+
+    @Override
+    void place(int cell, int pow) {
+        board = setPow(board, cell, pow);
+        refresh();
+    }
+
+    /**
+     * Brings the metadata up to date with the board. A move raises the max
+     * tile by at most one step, so only a full reload rescans for it.
+     */
+    private void refresh() {
+        empty = emptyMask(board);
+        legal = legalMoves(board);
+        if (maxPow == 0) {
+            maxPow = maxPow(board);
+        }
+        while (maxPow < MAX_POW && contains(board, maxPow + 1)) {
+            maxPow++;
+        }
+        won = maxPow >= 11 && contains(board, 11);
+    }
+
+    @Override
+    int getLastSpawn() {
+        return lastSpawn;
+    }
+
+    /**
+     * A 2048 tile is somewhere on the board.
+     * @return won or not
+     */
+    @Override
+    boolean checkWon() {
+        return won;
+    }
+
+    @Override
+    boolean checkLost() {
+        return legal == 0;
+    }
+
+    /**
+     * Generates a 10 percent chance
+     */
+    private boolean isFour() {
+        return randy.nextInt(10) == 5;
+    }
+
+    /**
+     * Spawns a single tile in a uniformly chosen empty cell, if possible.
+     */
+    void spawn() {
+        spawnTile();
+        refresh();
+    }
+
+    /**
+     * Picks the n-th empty cell straight from the empty mask.
+     */
+    private void spawnTile() {
+        if (empty == 0) {
+            return;
+        }
+        int cell = nthSetBit(empty, randy.nextInt(Long.bitCount(empty))) >>> 2;
+        int pow = isFour() ? 2 : 1;
+        board = setPow(board, cell, pow);
+        lastSpawn = (cell << 4) | pow;
+    }
+
+    /* Static helpers on packed boards, shared with anything that searches or simulates. */
+
+    static int getPow(long board, int cell) {
+        return (int) (board >>> (cell << 2)) & 0xF;
+    }
+
+    static long setPow(long board, int cell, int pow) {
+        int shift = cell << 2;
+        return (board & ~(0xFL << shift)) | ((long) pow << shift);
+    }
+
+    /**
+     * Marks the low bit of every empty nibble.
+     */
+    static long emptyMask(long board) {
+        long x = board;
+        x |= (x >>> 2);
+        x |= (x >>> 1);
+        return ~x & NIBBLE_LOW_BITS;
+    }
+
+    static boolean checkWon(long board) {
+        return contains(board, 11);
+    }
+
+    /**
+     * @return true if any cell holds the given exponent
+     */
+    static boolean contains(long board, int pow) {
+        return emptyMask(board ^ (NIBBLE_LOW_BITS * pow)) != 0; // a zero nibble is a match
+    }
+
+    static int countEmpty(long board) {
+        return Long.bitCount(emptyMask(board));
+    }
+
+    static int maxPow(long board) {
+        int max = 0;
+        for (int i = 0; i < 16; i++) {
+            max = Math.max(max, getPow(board, i));
+        }
+        return max;
+    }
+
+    /**
+     * Check if lost: every tile is filled, and there are no two adjacent tiles
+     *     of the same rank.
+     */
+    static boolean checkLost(long board) {
+        if (emptyMask(board) != 0) {
+            return false;
+        }
+        // a zero nibble in the xor means a cell equals its right/lower neighbour
+        long horizontal = emptyMask(board ^ (board >>> 4)) & 0x0111011101110111L;
+        long vertical = emptyMask(board ^ (board >>> 16)) & 0x0000111111111111L;
+        long capped = emptyMask(~board); // pairs of 2^15 can't merge
+        return ((horizontal | vertical) & ~capped) == 0;
+    }
+
+    /**
+     * @return bit Direction.ordinal() set for every direction that changes the board
+     */
+    static int legalMoves(long board) {
+        int rows = RowTable.movable((int) (board & ROW_MASK))
+                | RowTable.movable((int) (board >>> 16 & ROW_MASK))
+                | RowTable.movable((int) (board >>> 32 & ROW_MASK))
+                | RowTable.movable((int) (board >>> 48));
+        long t = transpose(board);
+        int cols = RowTable.movable((int) (t & ROW_MASK))
+                | RowTable.movable((int) (t >>> 16 & ROW_MASK))
+                | RowTable.movable((int) (t >>> 32 & ROW_MASK))
+                | RowTable.movable((int) (t >>> 48));
+        return cols | rows << 2; // UP, DOWN are columns left, right; LEFT, RIGHT are rows
+    }
+
+    /**
+     * Flips the board around the (x, x) diagonal so columns become rows.
+     */
+    static long transpose(long board) {
+        long a1 = board & 0xF0F00F0FF0F00F0FL;
+        long a2 = board & 0x0000F0F00000F0F0L;
+        long a3 = board & 0x0F0F00000F0F0000L;
+        long a = a1 | (a2 << 12) | (a3 >>> 12);
+        long b1 = a & 0xFF00FF0000FF00FFL;
+        long b2 = a & 0x00FF00FF00000000L;
+        long b3 = a & 0x00000000FF00FF00L;
+        return b1 | (b2 >>> 24) | (b3 << 24);
+    }
+
+    /**
+     * Returns the board after moving in the given direction, without spawning.
+     * Columns are transposed into rows so every direction is a row lookup.
+     * @param board packed board
+     * @param direction direction to move
+     * @return moved board; the same value if nothing moved
+     */
+    static long move(long board, Game.Direction direction) {
+        switch (direction) {
+            case UP:
+                return transpose(moveRows(transpose(board), RowTable.LEFT));
+            case DOWN:
+                return transpose(moveRows(transpose(board), RowTable.RIGHT));
+            case RIGHT:
+                return moveRows(board, RowTable.RIGHT);
+            default:
+                return moveRows(board, RowTable.LEFT);
+        }
+    }
+
+    /**
+     * Score gained by moving the board in the given direction.
+     */
+    static int moveScore(long board, Game.Direction direction) {
+        long rows = board;
+        if (direction == Game.Direction.UP || direction == Game.Direction.DOWN) {
+            rows = transpose(board);
+        }
+        int[] score = RowTable.SCORE;
+        return score[(int) (rows & ROW_MASK)]
+                + score[(int) (rows >>> 16 & ROW_MASK)]
+                + score[(int) (rows >>> 32 & ROW_MASK)]
+                + score[(int) (rows >>> 48)];
+    }
+
+    static long moveLeft(long board) {
+        return moveRows(board, RowTable.LEFT);
+    }
+
+    static long moveRight(long board) {
+        return moveRows(board, RowTable.RIGHT);
+    }
+
+    private static long moveRows(long rows, char[] table) {
+        return (long) table[(int) (rows & ROW_MASK)]
+                | (long) table[(int) (rows >>> 16 & ROW_MASK)] << 16
+                | (long) table[(int) (rows >>> 32 & ROW_MASK)] << 32
+                | (long) table[(int) (rows >>> 48)] << 48;
+    }
+}
@@ -0,0 +1,395 @@
+import java.awt.AlphaComposite;
+import java.awt.Canvas;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Dimension;
+import java.awt.DisplayMode;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The board, drawn on one Canvas by its own thread with page flipping.
+ * A snapshot that comes from a move is animated: tiles slide where
+ * Engine.trace sends them, merged tiles pop and the new tile fades in.
+ * A snapshot arriving mid-animation fast-forwards to it, so input never
+ * waits on the board. The thread sleeps while nothing moves.
+ * @author Justin Huynh
+ */
+
+final class BoardCanvas extends Canvas {
+    private static final long serialVersionUID = 1L;
+    private static final Color emptySquare = new Color(205, 193, 181);
+    private static final long slideNanos = 90000000L;
+    private static final long popNanos = 110000000L; // merge pop and spawn fade, after the slide
+    private static final float popScale = 0.15f; // merged tiles grow by up to 15%
+    private static final int borderWidthScale = 19; // gap around a tile is 1/19 of the square
+    private static final int frameWindow = 256; // frames in the frame time stats
+    static final byte merged = 1;
+    static final byte spawned = 2;
+    private static final Metrics.Histogram frameTime = Metrics.histogram("canvas.frame", "ns");
+
+    private final int boardSize;
+    private final long frameNanos;
+    private final Object lock = new Object(); // the peer, and with it the strategy, goes away on fullscreen toggles
+    private BufferStrategy strategy;
+    private final AtomicReference<GameLoop.Snapshot> pending = new AtomicReference<>();
+    private volatile int squareSize;
+    private volatile boolean colorMode;
+    private volatile boolean dirty = true;
+    private volatile boolean fontChanged;
+    private volatile String overlay; // shown above the frame stats; null hides both
+    private final Thread renderer;
+
+    /* render thread only */
+    private final TileSprites sprites = new TileSprites();
+    private GameLoop.Snapshot shown;
+    private boolean animating;
+    private long animationStart;
+    private final int[] targets;
+    private final byte[] effects; // merged or spawned, by cell after the move
+    private final Color[] colors; // color mode tile colors, by cell
+    private final long[] frameTimes = new long[frameWindow];
+    private long frameCount;
+
+    /**
+     * @param boardSize board width and height in squares
+     * @param first snapshot to show until the next one
+     * @param squareSize initial square size in pixels
+     */
+    BoardCanvas(int boardSize, GameLoop.Snapshot first, int squareSize) {
+        this.boardSize = boardSize;
+        this.squareSize = squareSize;
+        frameNanos = 1000000000L / refreshRate();
+        targets = new int[boardSize * boardSize];
+        effects = new byte[boardSize * boardSize];
+        colors = new Color[boardSize * boardSize];
+        shown = first;
+        setBackground(GameUI.background);
+        setFocusable(false);
+        renderer = new Thread(this::run, "board-renderer");
+        renderer.setDaemon(true);
+        renderer.start();
+    }
+
+    /**
+     * Frames per second to draw at: the screen's refresh rate, 60 if unknown,
+     * or -D2048.fps=n
+     */
+    static int refreshRate() {
+        Integer fps = Integer.getInteger("2048.fps");
+        if (fps != null && fps > 0) {
+            return fps;
+        }
+        if (!GraphicsEnvironment.isHeadless()) {
+            int rate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                    .getDisplayMode().getRefreshRate();
+            if (rate != DisplayMode.REFRESH_RATE_UNKNOWN) {
+                return rate;
+            }
+        }
+        return 60;
+    }
+
+    /**
+     * Shows a new snapshot, animating it if it came from a move. Safe from any thread.
+     */
+    void show(GameLoop.Snapshot snapshot) {
+        pending.set(snapshot);
+        LockSupport.unpark(renderer);
+    }
+
+    void setSquareSize(int squareSize) {
+        this.squareSize = squareSize;
+        refresh();
+    }
+
+    void setColorMode(boolean colorMode) {
+        this.colorMode = colorMode;
+        refresh();
+    }
+
+    /**
+     * @param overlay debug text to draw over the board, null for none
+     */
+    void setOverlay(String overlay) {
+        this.overlay = overlay;
+        refresh();
+    }
+
+    /**
+     * Re-renders the tiles in GameUI.font, e.g. once the bundled font has loaded
+     */
+    void refreshFont() {
+        fontChanged = true;
+        refresh();
+    }
+
+    /**
+     * Draws one more frame, e.g. after the window was uncovered
+     */
+    void refresh() {
+        dirty = true;
+        LockSupport.unpark(renderer);
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        synchronized (lock) {
+            createBufferStrategy(2);
+            strategy = getBufferStrategy();
+        }
+        refresh();
+    }
+
+    @Override
+    public void removeNotify() {
+        synchronized (lock) {
+            strategy = null;
+        }
+        super.removeNotify();
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        refresh();
+    }
+
+    @Override
+    public void update(Graphics g) {
+        refresh(); // no clearing first, the next frame covers everything
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(squareSize * boardSize, squareSize * boardSize);
+    }
+
+    /**
+     * Draws a frame per refresh while animating, otherwise once per change.
+     */
+    private void run() {
+        long nextFrame = 0;
+        long lastFrame = 0; // 0 after idling, so the wait is not counted as a frame
+        while (true) {
+            if (!animating && !dirty && pending.get() == null) {
+                lastFrame = 0;
+                LockSupport.park(this);
+                continue;
+            }
+            long now = System.nanoTime();
+            if (now < nextFrame) {
+                LockSupport.parkNanos(this, nextFrame - now);
+                continue;
+            }
+            nextFrame = (now - nextFrame < frameNanos) ? nextFrame + frameNanos : now + frameNanos;
+            try {
+                render(now);
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // keep drawing later frames
+            }
+            if (lastFrame != 0) {
+                frameTimes[(int) (frameCount++ % frameWindow)] = now - lastFrame;
+            }
+            lastFrame = now;
+        }
+    }
+
+    private void render(long now) {
+        long start = frameTime.start();
+        GameLoop.Snapshot next = pending.getAndSet(null);
+        if (next != null) {
+            begin(next, now);
+        }
+        if (colorMode && (next != null || dirty)) {
+            for (int cell = 0; cell < colors.length; cell++) { // every tile gets a new random color
+                colors[cell] = new Color((int) (Math.random() * 0x1000000));
+            }
+        }
+        if (fontChanged) {
+            fontChanged = false;
+            sprites.clear();
+        }
+        dirty = false;
+        synchronized (lock) {
+            if (strategy == null) {
+                return;
+            }
+            do {
+                do {
+                    Graphics2D g2 = (Graphics2D) strategy.getDrawGraphics();
+                    try {
+                        draw(g2, now);
+                    } finally {
+                        g2.dispose();
+                    }
+                } while (strategy.contentsRestored());
+                strategy.show();
+            } while (strategy.contentsLost());
+        }
+        Toolkit.getDefaultToolkit().sync();
+        frameTime.recordSince(start);
+    }
+
+    /**
+     * Starts animating a snapshot, dropping whatever animation was running.
+     */
+    private void begin(GameLoop.Snapshot next, long now) {
+        shown = next;
+        animating = next.direction != null;
+        animationStart = now;
+        if (!animating) {
+            return;
+        }
+        next.trace(targets);
+        effects(targets, effects);
+    }
+
+    /**
+     * Works out what happens to each cell in a move: a cell a tile merged into
+     * is merged, whichever order its two tiles were traced in; a cell no tile
+     * lands in is spawned, if it holds a tile at all.
+     * @param targets from Engine.trace
+     * @param effects filled with merged, spawned or 0, by cell after the move
+     */
+    static void effects(int[] targets, byte[] effects) {
+        Arrays.fill(effects, spawned);
+        for (int target : targets) {
+            if (target >= 0) {
+                effects[target >>> 1] = 0;
+            }
+        }
+        for (int target : targets) {
+            if (target >= 0) {
+                effects[target >>> 1] |= (byte) (target & merged);
+            }
+        }
+    }
+
+    /**
+     * Draws a snapshot into any graphics, as a frame the given time into its
+     * animation. For a canvas that is never shown, e.g. in benchmarks, since
+     * it uses the render thread's state.
+     */
+    void drawOffscreen(Graphics2D g2, GameLoop.Snapshot snapshot, long elapsed) {
+        begin(snapshot, 0);
+        draw(g2, elapsed);
+    }
+
+    private void draw(Graphics2D g2, long now) {
+        int size = squareSize;
+        int border = size / borderWidthScale;
+        int left = (getWidth() - size * boardSize) / 2;
+        int top = (getHeight() - size * boardSize) / 2;
+        g2.setColor(GameUI.background);
+        g2.fillRect(0, 0, getWidth(), getHeight());
+        g2.setColor(emptySquare);
+        for (int r = 0; r < boardSize; r++) {
+            for (int c = 0; c < boardSize; c++) {
+                g2.fillRect(left + c * size + border, top + r * size + border, size - 2 * border, size - 2 * border);
+            }
+        }
+
+        long elapsed = now - animationStart;
+        if (animating && elapsed >= slideNanos + popNanos) {
+            animating = false;
+        }
+        if (animating && elapsed < slideNanos) {
+            float t = ease((float) elapsed / slideNanos);
+            for (int cell = 0; cell < targets.length; cell++) {
+                if (targets[cell] < 0) {
+                    continue;
+                }
+                int to = targets[cell] >>> 1;
+                float x = lerp(cell % boardSize, to % boardSize, t);
+                float y = lerp(cell / boardSize, to / boardSize, t);
+                drawTile(g2, shown.getPowBefore(cell), to, left + Math.round(x * size),
+                        top + Math.round(y * size), size, border, 1f, 1f);
+            }
+        } else {
+            float t = animating ? (float) (elapsed - slideNanos) / popNanos : 1f;
+            for (int cell = 0; cell < targets.length; cell++) {
+                int pow = shown.getPow(cell);
+                if (pow == 0) {
+                    continue;
+                }
+                float scale = 1f;
+                float alpha = 1f;
+                if (animating && effects[cell] == merged) {
+                    scale += popScale * (float) Math.sin(Math.PI * t);
+                } else if (animating && effects[cell] == spawned) {
+                    alpha = t;
+                }
+                drawTile(g2, pow, cell, left + (cell % boardSize) * size,
+                        top + (cell / boardSize) * size, size, border, scale, alpha);
+            }
+        }
+
+        String text = overlay;
+        if (text != null) {
+            g2.setFont(GameUI.font.deriveFont(12f));
+            g2.setColor(Color.DARK_GRAY);
+            g2.drawString(text, 8, 16);
+            g2.drawString(frameStats(), 8, 32);
+        }
+    }
+
+    /**
+     * Draws a tile in the square at (x, y), inside the gap, scaled around its center.
+     * @param cell cell whose color mode color to use
+     */
+    private void drawTile(Graphics2D g2, int pow, int cell, int x, int y, int size, int border,
+                          float scale, float alpha) {
+        boolean recolor = colorMode;
+        int inner = size - 2 * border;
+        int scaled = Math.round(inner * scale);
+        int tileX = x + border + (inner - scaled) / 2;
+        int tileY = y + border + (inner - scaled) / 2;
+        Composite composite = g2.getComposite();
+        if (alpha < 1f) {
+            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, Math.max(alpha, 0f)));
+        }
+        if (recolor) {
+            g2.setColor(colors[cell]);
+            g2.fillRect(tileX, tileY, scaled, scaled);
+        }
+        g2.drawImage(sprites.get(Tile.of(pow), size, recolor), tileX, tileY, tileX + scaled, tileY + scaled,
+                border, border, size - border, size - border, null);
+        g2.setComposite(composite);
+    }
+
+    private static float ease(float t) {
+        return 1f - (1f - t) * (1f - t) * (1f - t); // cubic ease-out
+    }
+
+    private static float lerp(int from, int to, float t) {
+        return from + (to - from) * t;
+    }
+
+    /**
+     * @return frame rate, 99th percentile frame time and frames over 1.5x budget, of recent animated frames
+     */
+    private String frameStats() {
+        int count = (int) Math.min(frameCount, frameWindow);
+        if (count == 0) {
+            return String.format("render: no animated frames yet (target %d fps)", 1000000000L / frameNanos);
+        }
+        long[] sorted = Arrays.copyOf(frameTimes, count);
+        Arrays.sort(sorted);
+        long total = 0;
+        int late = 0;
+        for (long time : sorted) {
+            total += time;
+            late += (time > frameNanos * 3 / 2) ? 1 : 0;
+        }
+        return String.format("render: %.1f fps, p99 %.2f ms, %d/%d frames late (target %d fps)",
+                count * 1e9 / total, sorted[Math.min(count - 1, count * 99 / 100)] / 1e6, late, count,
+                1000000000L / frameNanos);
+    }
+}
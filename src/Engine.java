@@ -0,0 +1,166 @@
+import java.util.Random;
+
+/**
+ * Board logic behind a Game.
+ * create() and blank() give Bitboard for 4x4, whose nibbles stop merging at
+ * 2^15, and ArrayBoard for every other size. Game and Journal use ArrayBoard
+ * on every size, so people play up to Tile.MAX_POW whatever the size.
+ * Cells are numbered row * size() + col.
+ * @author Alan Huynh
+ */
+
+abstract class Engine {
+    static final int MIN_SIZE = 3;
+    static final int MAX_SIZE = 8;
+
+    /**
+     * Starts a new game with two random tiles.
+     * @param size board width and height, MIN_SIZE to MAX_SIZE
+     * @param randy random source for spawns
+     */
+    static Engine create(int size, Random randy) {
+        checkSize(size);
+        return size == 4 ? new Bitboard(randy) : new ArrayBoard(size, randy);
+    }
+
+    /**
+     * An empty board without a random source, to load positions into.
+     */
+    static Engine blank(int size) {
+        checkSize(size);
+        return size == 4 ? new Bitboard(null, 0L, 0) : new ArrayBoard(size);
+    }
+
+    /**
+     * @throws IllegalArgumentException if no engine plays boards of this size
+     */
+    static void checkSize(int size) {
+        if (size < MIN_SIZE || size > MAX_SIZE) {
+            throw new IllegalArgumentException("Board size must be between " + MIN_SIZE + " and " + MAX_SIZE);
+        }
+    }
+
+    /**
+     * @return index of the n-th lowest set bit, counting from 0
+     */
+    static int nthSetBit(long mask, int n) {
+        int base = 0;
+        for (int width = 32; width >= 8; width >>>= 1) { // halve the window by popcount
+            int low = Long.bitCount((mask >>> base) & ((1L << width) - 1));
+            if (n >= low) {
+                n -= low;
+                base += width;
+            }
+        }
+        long rest = mask >>> base;
+        for (; n > 0; n--) {
+            rest &= rest - 1;
+        }
+        return base + Long.numberOfTrailingZeros(rest);
+    }
+
+    /**
+     * Where every tile goes when a board slides, for animating a shift.
+     * Worked out from the board before the move, so shift itself stays as
+     * fast as it was; merges follow ArrayBoard, which Game plays on, each
+     * tile merging at most once and not past Tile.MAX_POW.
+     * @param pows exponents by cell before the move, 0 where empty
+     * @param size board width and height
+     * @param direction direction of the move
+     * @param targets filled with (destination cell << 1) | 1 if merged, per cell; -1 where empty
+     */
+    static void trace(byte[] pows, int size, Game.Direction direction, int[] targets) {
+        int maxPow = ArrayBoard.MAX_POW;
+        for (int line = 0; line < size; line++) {
+            int next = 0; // position along the line the next tile lands on
+            int lastPow = 0; // tile at next - 1, 0 once it has merged
+            for (int k = 0; k < size; k++) {
+                int cell = lineCell(size, direction, line, k);
+                int pow = pows[cell];
+                if (pow == 0) {
+                    targets[cell] = -1;
+                } else if (pow == lastPow && pow < maxPow) {
+                    targets[cell] = (lineCell(size, direction, line, next - 1) << 1) | 1;
+                    lastPow = 0;
+                } else {
+                    targets[cell] = lineCell(size, direction, line, next) << 1;
+                    lastPow = pow;
+                    next++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return cell k steps from the wall the tiles slide toward
+     */
+    static int lineCell(int size, Game.Direction direction, int line, int k) {
+        switch (direction) {
+            case UP:
+                return k * size + line;
+            case DOWN:
+                return (size - 1 - k) * size + line;
+            case LEFT:
+                return line * size + k;
+            default:
+                return line * size + size - 1 - k;
+        }
+    }
+
+    abstract int size();
+
+    /**
+     * @return exponent at the cell, 0 where empty
+     */
+    abstract int getPow(int row, int col);
+
+    abstract int getScore();
+
+    abstract int maxPow();
+
+    /**
+     * Moves the board and spawns a tile if anything moved.
+     * @return true if the board changed
+     */
+    abstract boolean shift(Game.Direction direction);
+
+    /**
+     * Moves the board and adds the score, without spawning.
+     * @return true if the board changed
+     */
+    abstract boolean slide(Game.Direction direction);
+
+    /**
+     * Puts a tile in a cell, as a recorded spawn.
+     */
+    abstract void place(int cell, int pow);
+
+    /**
+     * @return bit Direction.ordinal() set for every direction that changes the board
+     */
+    abstract int legalMoves();
+
+    abstract boolean checkWon();
+
+    abstract boolean checkLost();
+
+    /**
+     * @return (cell << 4) | pow of the tile spawned by the last shift
+     */
+    abstract int getLastSpawn();
+
+    /**
+     * @return number of longs in a packed snapshot of the board
+     */
+    abstract int snapshotWords();
+
+    /**
+     * Packs the board into snapshotWords() longs.
+     */
+    abstract void save(long[] words, int offset);
+
+    /**
+     * Restores a board packed by save, with its score.
+     */
+    abstract void load(long[] words, int offset, int score);
+}
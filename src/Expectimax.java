@@ -0,0 +1,261 @@
+import java.util.Random;
+
+/**
+ * Expectimax player on packed boards.
+ * Player nodes try the four directions, chance nodes weight a 2 (90%) or a 4
+ * (10%) in every empty cell, like Bitboard.spawn(). Search deepens one move at
+ * a time until the depth allowed by the number of empty cells is reached or
+ * the time budget runs out. Each instance owns its transposition table, so use
+ * one per thread. Given a Tablebase, the root only tries the moves it rates
+ * best wherever it covers the board, which on 4x4 is only the opening.
+ * @author Alan Huynh
+ */
+
+final class Expectimax implements MovePolicy {
+    private static final Game.Direction[] DIRECTIONS = Game.Direction.values();
+
+    /* Heuristic weights, applied to every row and every column */
+    private static final float LOST_PENALTY = 200000f;
+    private static final float MONOTONICITY_POWER = 4f;
+    private static final float MONOTONICITY_WEIGHT = 47f;
+    private static final float SUM_POWER = 3.5f;
+    private static final float SUM_WEIGHT = 11f;
+    private static final float MERGES_WEIGHT = 700f;
+    private static final float EMPTY_WEIGHT = 270f;
+
+    /** Heuristic value of every packed row */
+    private static final float[] HEURISTIC = new float[1 << 16];
+
+    private static final float PROB_CUTOFF = 0.001f; // stop expanding unlikely spawns
+    private static final int TABLE_BITS = 18;
+
+    private final long budgetNanos;
+    private final Tablebase tablebase; // null if none
+    private final long[] tableKeys = new long[1 << TABLE_BITS];
+    private final float[] tableValues = new float[1 << TABLE_BITS];
+    private final int[] tableGenerations = new int[1 << TABLE_BITS];
+    private final byte[] tableDepths = new byte[1 << TABLE_BITS]; // moves left below the entry
+    private int generation;
+    private int depthLimit;
+    private int rootMoves; // directions the root may try, by bit
+    private long deadline;
+    private int nodes;
+    private boolean aborted;
+    private int lastDepth;
+
+    static {
+        for (int row = 0; row < HEURISTIC.length; row++) {
+            int[] line = new int[4];
+            float sum = 0;
+            int empty = 0;
+            for (int i = 0; i < 4; i++) {
+                line[i] = (row >>> (i << 2)) & 0xF;
+                sum += (float) Math.pow(line[i], SUM_POWER);
+                if (line[i] == 0) {
+                    empty++;
+                }
+            }
+            // merges: runs of equal tiles, skipping blanks
+            int merges = 0;
+            int prev = 0;
+            int counter = 0;
+            for (int i = 0; i < 4; i++) {
+                if (line[i] == 0) {
+                    continue;
+                }
+                if (prev == line[i]) {
+                    counter++;
+                } else if (counter > 0) {
+                    merges += 1 + counter;
+                    counter = 0;
+                }
+                prev = line[i];
+            }
+            if (counter > 0) {
+                merges += 1 + counter;
+            }
+            float monoLeft = 0;
+            float monoRight = 0;
+            for (int i = 1; i < 4; i++) {
+                float a = (float) Math.pow(line[i - 1], MONOTONICITY_POWER);
+                float b = (float) Math.pow(line[i], MONOTONICITY_POWER);
+                if (line[i - 1] > line[i]) {
+                    monoLeft += a - b;
+                } else {
+                    monoRight += b - a;
+                }
+            }
+            HEURISTIC[row] = LOST_PENALTY + EMPTY_WEIGHT * empty + MERGES_WEIGHT * merges
+                    - MONOTONICITY_WEIGHT * Math.min(monoLeft, monoRight) - SUM_WEIGHT * sum;
+        }
+    }
+
+    /**
+     * @param budgetNanos wall clock time allowed per move
+     */
+    Expectimax(long budgetNanos) {
+        this(budgetNanos, null);
+    }
+
+    /**
+     * @param budgetNanos wall clock time allowed per move
+     * @param tablebase solved 4x4 table to narrow the root moves, null for none
+     */
+    Expectimax(long budgetNanos, Tablebase tablebase) {
+        this.budgetNanos = budgetNanos;
+        this.tablebase = tablebase;
+    }
+
+    @Override
+    public Game.Direction choose(long board, Random randy) {
+        return bestMove(board);
+    }
+
+    /**
+     * Depth reached by the last completed search, in moves.
+     */
+    int getLastDepth() {
+        return lastDepth;
+    }
+
+    /**
+     * Finds the move with the best expected heuristic value.
+     * @param board packed board
+     * @return best direction, or null if no move changes the board
+     */
+    Game.Direction bestMove(long board) {
+        deadline = System.nanoTime() + budgetNanos;
+        aborted = false;
+        generation++; // drops the last call's entries; deeper passes reject shallower ones by depth
+        int covered = tablebase == null ? 0 : tablebase.bestMoves(board);
+        rootMoves = covered != 0 ? covered : 0xF;
+        int maxDepth = maxDepth(Bitboard.countEmpty(board));
+        Game.Direction best = null;
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            Game.Direction found = searchRoot(board, depth);
+            if (aborted) {
+                break;
+            }
+            best = found;
+            lastDepth = depth;
+            if (best == null || System.nanoTime() > deadline) {
+                break;
+            }
+        }
+        if (best == null) {
+            // out of time before depth 1 finished: take any legal move
+            for (Game.Direction direction : DIRECTIONS) {
+                if ((rootMoves >>> direction.ordinal() & 1) != 0 && Bitboard.move(board, direction) != board) {
+                    return direction;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Crowded boards are where mistakes happen, so they get the deepest search.
+     * These are caps, not what a budget buys: on one core a full search to
+     * depth 6 of a board with 8 or more empty cells takes about 7 ms (9 ms at
+     * the 90th percentile), so a 5 ms budget mostly completes depth 4 to 6
+     * there and depth 4 on crowded boards, where depth 8 takes 20 to 40 ms.
+     */
+    private static int maxDepth(int empty) {
+        if (empty >= 8) {
+            return 6;
+        }
+        if (empty >= 4) {
+            return 8;
+        }
+        return 10;
+    }
+
+    private Game.Direction searchRoot(long board, int depth) {
+        depthLimit = depth;
+        Game.Direction best = null;
+        float bestScore = Float.NEGATIVE_INFINITY;
+        for (Game.Direction direction : DIRECTIONS) {
+            long moved = Bitboard.move(board, direction);
+            if (moved == board || (rootMoves >>> direction.ordinal() & 1) == 0) {
+                continue;
+            }
+            float score = chanceNode(moved, 1, 1f);
+            if (aborted) {
+                return null;
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                best = direction;
+            }
+        }
+        return best;
+    }
+
+    private float playerNode(long board, int depth, float prob) {
+        float best = 0;
+        long moved = Bitboard.moveLeft(board);
+        if (moved != board) {
+            best = chanceNode(moved, depth + 1, prob);
+        }
+        moved = Bitboard.moveRight(board);
+        if (moved != board) {
+            best = Math.max(best, chanceNode(moved, depth + 1, prob));
+        }
+        long columns = Bitboard.transpose(board);
+        moved = Bitboard.moveLeft(columns);
+        if (moved != columns) {
+            best = Math.max(best, chanceNode(Bitboard.transpose(moved), depth + 1, prob));
+        }
+        moved = Bitboard.moveRight(columns);
+        if (moved != columns) {
+            best = Math.max(best, chanceNode(Bitboard.transpose(moved), depth + 1, prob));
+        }
+        return best;
+    }
+
+    private float chanceNode(long board, int depth, float prob) {
+        if (depth > depthLimit || prob < PROB_CUTOFF) {
+            return heuristic(board);
+        }
+        if ((++nodes & 0x3FF) == 0 && System.nanoTime() > deadline) {
+            aborted = true;
+        }
+        if (aborted) {
+            return 0;
+        }
+        int left = depthLimit - depth;
+        int slot = (int) ((board * 0x9E3779B97F4A7C15L) >>> (64 - TABLE_BITS));
+        if (tableKeys[slot] == board && tableGenerations[slot] == generation && tableDepths[slot] >= left) {
+            return tableValues[slot];
+        }
+
+        long empty = Bitboard.emptyMask(board);
+        int open = Long.bitCount(empty);
+        prob /= open;
+        float total = 0;
+        while (empty != 0) {
+            long bit = empty & -empty;
+            empty ^= bit;
+            total += 0.9f * playerNode(board | bit, depth, prob * 0.9f);
+            total += 0.1f * playerNode(board | (bit << 1), depth, prob * 0.1f);
+        }
+        if (aborted) {
+            return 0; // partial sums must not reach the table
+        }
+        total /= open;
+
+        tableKeys[slot] = board;
+        tableValues[slot] = total;
+        tableGenerations[slot] = generation;
+        tableDepths[slot] = (byte) left;
+        return total;
+    }
+
+    static float heuristic(long board) {
+        long columns = Bitboard.transpose(board);
+        return HEURISTIC[(int) (board & 0xFFFF)] + HEURISTIC[(int) (board >>> 16 & 0xFFFF)]
+                + HEURISTIC[(int) (board >>> 32 & 0xFFFF)] + HEURISTIC[(int) (board >>> 48)]
+                + HEURISTIC[(int) (columns & 0xFFFF)] + HEURISTIC[(int) (columns >>> 16 & 0xFFFF)]
+                + HEURISTIC[(int) (columns >>> 32 & 0xFFFF)] + HEURISTIC[(int) (columns >>> 48)];
+    }
+}
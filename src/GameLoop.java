@@ -0,0 +1,201 @@
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Runs a Game on its own thread so input never waits on painting.
+ * Commands are queued by one submitting thread (the EDT) and applied in
+ * order; after each burst the logic thread publishes an immutable Snapshot
+ * and calls the listener once, however many commands the burst held.
+ * Only the logic thread touches the Game, and it makes it too, since a new
+ * Game waits for the high score to load. Until then latest() is an empty board.
+ * @author Alan Huynh
+ */
+
+final class GameLoop {
+    private static final Metrics.Histogram moveAllocation = Metrics.histogram("game.move.alloc", "B");
+
+    /**
+     * The game as of some command, safe to read from any thread.
+     */
+    static final class Snapshot {
+        final long applied; // commands applied so far, matching the numbers submit hands out
+        final int size;
+        final int score;
+        final int hiScore;
+        final int maxPow;
+        final int moves;
+        final boolean won;
+        final boolean lost;
+        final Game.Direction direction; // last command's move, null if it was not a move that changed the board
+        private final byte[] pows;
+        private final byte[] before; // board before that move
+
+        private Snapshot(long applied, Game game, Game.Direction direction, byte[] before) {
+            this.applied = applied;
+            this.direction = direction;
+            this.before = before;
+            size = game.size();
+            score = game.getScore();
+            hiScore = game.getHiScore();
+            maxPow = game.getMaxPow();
+            moves = game.getMoves();
+            won = game.checkWon();
+            lost = game.checkLost();
+            pows = pows(game);
+        }
+
+        /**
+         * An empty board, shown until the logic thread has made the game.
+         */
+        private Snapshot(int size) {
+            applied = 0;
+            direction = null;
+            before = null;
+            this.size = size;
+            score = 0;
+            hiScore = 0;
+            maxPow = 0;
+            moves = 0;
+            won = false;
+            lost = false;
+            pows = new byte[size * size];
+        }
+
+        /**
+         * @return tile at the given cell, null where empty
+         */
+        Tile getTile(int row, int col) {
+            return Tile.of(pows[row * size + col]);
+        }
+
+        int getPow(int cell) {
+            return pows[cell];
+        }
+
+        /**
+         * @return exponent at the cell before the last move, see direction
+         */
+        int getPowBefore(int cell) {
+            return before[cell];
+        }
+
+        /**
+         * Where each tile before the last move went, see Engine.trace.
+         */
+        void trace(int[] targets) {
+            Engine.trace(before, size, direction, targets);
+        }
+
+    }
+
+    private final int size;
+    private final Runnable listener;
+    private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+    private volatile Snapshot latest;
+    private long submitted; // submitting thread only
+    private Game game; // logic thread only
+    private long applied; // logic thread only
+    private Game.Direction lastMove; // logic thread only, as in Snapshot.direction
+    private byte[] lastBefore; // logic thread only
+
+    /**
+     * @param size board width and height
+     * @param listener called on the logic thread after each new snapshot
+     */
+    GameLoop(int size, Runnable listener) {
+        this.size = size;
+        this.listener = listener;
+        latest = new Snapshot(size);
+        Thread thread = new Thread(this::run, "game-logic");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    Snapshot latest() {
+        return latest;
+    }
+
+    /**
+     * @return the command's number; snapshots with applied at or past it include it
+     */
+    long move(Game.Direction direction) {
+        return submit(() -> {
+            long allocated = Metrics.allocated();
+            byte[] before = pows(game);
+            int moves = game.getMoves();
+            game.shift(direction);
+            if (game.getMoves() != moves) {
+                lastMove = direction;
+                lastBefore = before;
+            }
+            if (Metrics.ENABLED) {
+                moveAllocation.record(Metrics.allocated() - allocated);
+            }
+        });
+    }
+
+    long undo() {
+        return submit(() -> game.undo());
+    }
+
+    long redo() {
+        return submit(() -> game.redo());
+    }
+
+    /**
+     * Replaces the game with a new one of the same size.
+     */
+    long reset() {
+        return submit(() -> game = new Game(size));
+    }
+
+    /**
+     * Runs an action against the game on the logic thread, e.g. to copy its journal.
+     */
+    long execute(Consumer<Game> action) {
+        return submit(() -> action.accept(game));
+    }
+
+    private static byte[] pows(Game game) {
+        int size = game.size();
+        byte[] pows = new byte[size * size];
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                Tile tile = game.getTile(r, c);
+                pows[r * size + c] = (byte) (tile == null ? 0 : tile.getPow());
+            }
+        }
+        return pows;
+    }
+
+    private long submit(Runnable command) {
+        queue.add(command);
+        return ++submitted;
+    }
+
+    private void run() {
+        game = new Game(size); // commands submitted meanwhile wait in the queue
+        latest = new Snapshot(0, game, null, null);
+        listener.run();
+        try {
+            while (true) {
+                Runnable command = queue.take();
+                do {
+                    lastMove = null;
+                    lastBefore = null;
+                    try {
+                        command.run();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace(); // one bad command should not stop the game
+                    }
+                    applied++;
+                } while ((command = queue.poll()) != null);
+                latest = new Snapshot(applied, game, lastMove, lastBefore);
+                listener.run();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
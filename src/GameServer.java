@@ -0,0 +1,269 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless 2048 over HTTP on localhost, separate from the Swing UI.
+ * Every reply is the session as JSON (see Session.appendJson):
+ *   POST /new?size=4[&seed=n]  starts a session
+ *   POST /move?id=n&dir=left   moves up, down, left or right
+ *   POST /undo?id=n             takes back a move
+ *   GET  /state?id=n
+ * Requests run on virtual threads when the JVM has them, otherwise on a
+ * fixed pool. 4x4 sessions are packed into a SessionStore that spills idle
+ * ones to disk; other sizes sit in a concurrent map and each locks only itself.
+ * Usage: java GameServer [port] [resident 4x4 sessions]
+ * @author Alan Huynh
+ */
+
+final class GameServer {
+    static final int DEFAULT_PORT = 2048;
+    static final int DEFAULT_RESIDENT = 1 << 20;
+
+    static {
+        // replies go out as separate header and body writes; without this, Nagle's
+        // algorithm and delayed ACKs add ~40 ms to every request on a kept-alive connection
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final SessionStore store;
+    private final ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong storeCount = new AtomicLong();
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    /**
+     * A request's answer: the session, or an HTTP error.
+     */
+    private interface Action {
+        String run(Map<String, String> params) throws RequestException;
+    }
+
+    private static final class RequestException extends Exception {
+        private static final long serialVersionUID = 1L;
+        private final int status;
+
+        private RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * @param port port to listen on at the loopback address, 0 for any free one
+     * @param resident 4x4 sessions kept in memory before the least recently used spill to disk
+     */
+    GameServer(int port, int resident) throws IOException {
+        store = new SessionStore(resident, Files.createTempDirectory("2048-sessions"));
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = newExecutor();
+        server.setExecutor(executor);
+        server.createContext("/new", exchange -> handle(exchange, "POST", this::newGame));
+        server.createContext("/move", exchange -> handle(exchange, "POST", this::move));
+        server.createContext("/undo", exchange -> handle(exchange, "POST", this::undo));
+        server.createContext("/state", exchange -> handle(exchange, "GET", this::state));
+    }
+
+    /**
+     * A virtual thread per request where the JVM supports it, so idle
+     * connections cost next to nothing; otherwise a pool sized to the cores.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+        }
+    }
+
+    void start() {
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    int sessionCount() {
+        return (int) storeCount.get() + sessions.size();
+    }
+
+    SessionStore getStore() {
+        return store;
+    }
+
+    private String newGame(Map<String, String> params) throws RequestException {
+        int size = intParam(params, "size", 4);
+        long seed = params.containsKey("seed")
+                ? longParam(params, "seed") : ThreadLocalRandom.current().nextLong();
+        if (size == 4) {
+            long id = nextId.getAndIncrement();
+            SessionStore.Position position = new SessionStore.Position();
+            store.create(id, seed, position);
+            storeCount.incrementAndGet();
+            return json(id, position, false);
+        }
+        Session session;
+        try {
+            session = new Session(nextId.getAndIncrement(), size, seed);
+        } catch (IllegalArgumentException e) {
+            throw new RequestException(400, e.getMessage());
+        }
+        sessions.put(session.getId(), session);
+        return json(session, false);
+    }
+
+    private String move(Map<String, String> params) throws RequestException {
+        long id = longParam(params, "id");
+        String dir = params.get("dir");
+        Game.Direction direction;
+        try {
+            direction = Game.Direction.valueOf(dir == null ? "" : dir.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new RequestException(400, "dir must be up, down, left or right");
+        }
+        SessionStore.Position position = new SessionStore.Position();
+        int moved = store.move(id, direction, position);
+        if (moved != SessionStore.MISSING) {
+            return json(id, position, moved == 1);
+        }
+        Session session = session(params);
+        return json(session, session.move(direction));
+    }
+
+    private String undo(Map<String, String> params) throws RequestException {
+        long id = longParam(params, "id");
+        SessionStore.Position position = new SessionStore.Position();
+        int undone = store.undo(id, position);
+        if (undone != SessionStore.MISSING) {
+            return json(id, position, undone == 1);
+        }
+        Session session = session(params);
+        return json(session, session.undo());
+    }
+
+    private String state(Map<String, String> params) throws RequestException {
+        long id = longParam(params, "id");
+        SessionStore.Position position = new SessionStore.Position();
+        if (store.read(id, position)) {
+            return json(id, position, false);
+        }
+        return json(session(params), false);
+    }
+
+    private Session session(Map<String, String> params) throws RequestException {
+        Session session = sessions.get(longParam(params, "id"));
+        if (session == null) {
+            throw new RequestException(404, "No session " + params.get("id"));
+        }
+        return session;
+    }
+
+    private static String json(Session session, boolean moved) {
+        StringBuilder out = new StringBuilder(256);
+        session.appendJson(out, moved);
+        return out.toString();
+    }
+
+    private static String json(long id, SessionStore.Position position, boolean moved) {
+        StringBuilder out = new StringBuilder(256);
+        Session.appendJson(out, id, new Bitboard(null, position.board, position.score), position.moves, moved);
+        return out.toString();
+    }
+
+    private static int intParam(Map<String, String> params, String name, int missing) throws RequestException {
+        if (!params.containsKey(name)) {
+            return missing;
+        }
+        long value = longParam(params, name);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new RequestException(400, name + " is out of range");
+        }
+        return (int) value;
+    }
+
+    private static long longParam(Map<String, String> params, String name) throws RequestException {
+        try {
+            return Long.parseLong(params.get(name));
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, name + " must be a number");
+        }
+    }
+
+    private static void handle(HttpExchange exchange, String method, Action action) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            if (!method.equals(exchange.getRequestMethod())) {
+                throw new RequestException(405, "Use " + method);
+            }
+            body = action.run(parseQuery(exchange.getRequestURI().getRawQuery()));
+        } catch (RequestException e) {
+            status = e.status;
+            body = error(e.getMessage());
+        } catch (IllegalArgumentException e) { // a malformed escape in the query
+            status = 400;
+            body = error(e.getMessage());
+        } catch (RuntimeException e) { // e.g. the spill file failing; the client still gets an answer
+            e.printStackTrace();
+            status = 500;
+            body = error("Internal error");
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String error(String message) {
+        return "{\"error\":\"" + String.valueOf(message).replace("\"", "'") + "\"}";
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    public static void main(String[] args) throws IOException {
+        GameServer server = new GameServer(args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT,
+                args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RESIDENT);
+        server.start();
+        System.out.printf("2048 server on http://localhost:%d/%n", server.getPort());
+    }
+}
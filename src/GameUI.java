@@ -4,13 +4,16 @@ import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.Font;
+import java.awt.FontFormatException;
 import java.awt.FontMetrics;
 import java.awt.Frame;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.GridLayout;
+import java.awt.Image;
 import java.awt.Point;
 import java.awt.RenderingHints;
 import java.awt.event.ComponentAdapter;
@@ -19,12 +22,25 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.geom.Rectangle2D;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 import java.net.URL;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
@@ -40,38 +56,77 @@ import javax.swing.border.LineBorder;
  */
 
 class GameUI {
-    private Game game = new Game();
+    private final int boardSize;
+    private GameLoop loop;
+    private GameLoop.Snapshot shown; // what the board shows; only the EDT swaps it
+    private long awaitedReset; // command number of the last reset; older snapshots are not shown
     private boolean gamePaused = false;
     private boolean fullscreen = false;
     private boolean colorMode = false;
     private boolean got2048 = false;
-    private boolean lostAfter2048 = false;
+    private GameLoop.Snapshot lastLoss; // latest loss of this game, recorded when the game is left
+    private long lastLossMillis;
+    private int ending = noEnding; // the win/lose text currently shown
+    private static final int noEnding = 0;
+    private static final int wonEnding = 1;
+    private static final int lostEnding = 2;
     private static final String titleText = "2048";
-    private static final int squareSizeScale = 6;
-    private static final Color background = new Color(187, 173, 160);
-    private static final Color emptySquare = new Color(205, 193, 181);
+    private static final boolean debug = Boolean.getBoolean("2048.debug"); // run with -D2048.debug=true
+    private static final int squareSizeScale = 6; // a 4x4 square is 1/6 of the window height
+    private static final String journalLocation = "journals";
+    private static final long frameNanos = 1000000000L / BoardCanvas.refreshRate(); // at most one update per frame
+    private static final int latencyWindow = 128; // inputs averaged in the debug overlay
+    private static final Metrics.Histogram presentTime = Metrics.histogram("ui.present", "ns");
+    static final Color background = new Color(187, 173, 160);
     private static final Color twoFourFontColor = new Color(117, 107, 97);
     private static final Color fontColor = new Color(244, 230, 219);
-    private static final Font font = new Font("Clear Sans", Font.BOLD, 17);
+    private static final String fontResource = "ClearSans-Bold.ttf";
+    private static final String iconResource = "icon.png";
+    static volatile Font font = new Font(Font.SANS_SERIF, Font.BOLD, 17); // until Clear Sans is loaded
+    private static CompletableFuture<Font> clearSans;
+    private static CompletableFuture<Image> icon;
+    private static CompletableFuture<Leaderboard> leaderboard;
+    private static final Metrics.Histogram firstFrameTime = Metrics.histogram("startup.first_frame", "ns");
+    private static final Metrics.Histogram readyTime = Metrics.histogram("startup.ready", "ns");
+    private static final float tileFontScale = 0.42f; // font is 42% of square size for tiles between 1 and 3 digits
+    private static final float tileFontDecrease = 0.075f; // remove 7.5% for each increase in number of digits past 3
     private int squareSize;
     private final JFrame frame;
-    private final JLabel score;
-    private final JLabel highScore;
-    private final JLabel time;
-    private final JLabel title;
-    private final JLabel winState;
-    private final JLabel pauseState;
-    private final Timer timer;
+    private final long startNanos; // when main started
+    private boolean built;
+    private JButton reset;
+    private JLabel score;
+    private JLabel highScore;
+    private JLabel time;
+    private JLabel title;
+    private JLabel winState;
+    private JLabel pauseState;
+    private Timer timer;
     private int secs;
     private Dimension dimension;
     private Point location;
-    private Grid board;
+    private BoardCanvas board;
+    private final AtomicBoolean framePending = new AtomicBoolean();
+    private Timer frameTimer;
+    private long lastFrame;
+    private final long[] inputTimes = new long[latencyWindow]; // nanoTime each command was submitted
+    private final long[] latencies = new long[latencyWindow]; // submit to frame, in nanoseconds
+    private long latencyCount;
+
+    /**
+     * Shows the frame with a placeholder right away; the rest of the UI is
+     * built once the placeholder has been painted.
+     * @param boardSize board width and height in squares
+     * @param startNanos System.nanoTime() when main started
+     */
+    private GameUI(int boardSize, long startNanos) {
+        this.boardSize = boardSize;
+        this.startNanos = startNanos;
 
-    private GameUI() {
         /* Minimum Dimensions */
         final int minWindowHeight = 700;
         final int minWindowWidth = 620;
-        squareSize = (minWindowHeight / squareSizeScale);
+        squareSize = squareSizeFor(minWindowHeight);
 
         /* Main JFrame */
         frame = new JFrame();
@@ -83,6 +138,14 @@ class GameUI {
         frame.setFocusable(true); // the only component that is focusable!
         frame.setBackground(background);
 
+        // Leaderboard entry for a game lost before closing
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                recordGame(true);
+            }
+        });
+
         // Resize listener
         frame.addComponentListener(new ComponentAdapter() {
             @Override
@@ -91,14 +154,54 @@ class GameUI {
             }
         });
 
-        /* Icon */
-        URL iconURL = this.getClass().getClassLoader().getResource("icon.png");
-        if (iconURL != null) {
-            frame.setIconImage(new ImageIcon(iconURL).getImage());
+        /* Icon and font, loaded in the background since main */
+        icon.thenAccept(image -> {
+            if (image != null) {
+                SwingUtilities.invokeLater(() -> frame.setIconImage(image));
+            }
+        });
+        clearSans.thenAccept(loaded -> SwingUtilities.invokeLater(() -> applyFont(loaded)));
+
+        /* Placeholder: the board's background, until build() replaces it */
+        frame.add(new JPanelCustom() {
+            private boolean painted;
+
+            @Override
+            protected void paintComponent(Graphics g) {
+                super.paintComponent(g);
+                if (!painted) {
+                    painted = true;
+                    long shownNanos = System.nanoTime() - startNanos;
+                    firstFrameTime.record(shownNanos);
+                    if (debug) {
+                        System.err.printf("startup: first frame after %.1f ms%n", shownNanos / 1e6);
+                    }
+                    SwingUtilities.invokeLater(GameUI.this::build);
+                }
+            }
+        });
+        Timer fallback = new Timer(250, e -> build()); // in case the placeholder is never painted, e.g. minimized
+        fallback.setRepeats(false);
+        fallback.start();
+        frame.setVisible(true);
+    }
+
+    /**
+     * Builds the panels, labels and board and starts the game
+     */
+    private void build() {
+        if (built) {
+            return;
         }
+        built = true;
+        loop = new GameLoop(boardSize, this::requestFrame);
+        shown = loop.latest();
+        frameTimer = new Timer(0, e -> present());
+        frameTimer.setRepeats(false);
+        frame.getContentPane().removeAll();
 
         /* New Game JButton */
-        JButton reset = new JButton("<html><center>New<br>Game</center></html>");
+        reset = new JButton("<html><center>New<br>Game</center></html>");
         reset.setPreferredSize(new Dimension(80, 65));
         reset.setFont(font.deriveFont(18f));
         reset.setFocusPainted(false);
@@ -134,7 +237,7 @@ class GameUI {
             public void mousePressed(MouseEvent e) {
                 if (e.getClickCount() == 4 && !gamePaused) {
                     colorMode = true;
-                    board.paintTile();
+                    board.setColorMode(true);
                 }
             }
         });
@@ -195,7 +298,7 @@ class GameUI {
         // Panels to frame
         frame.add(mainPanel, BorderLayout.NORTH);
         frame.add(winPanel, BorderLayout.SOUTH);
-        frame.add(board = new Grid());
+        frame.add(board = new BoardCanvas(boardSize, shown, squareSize));
 
         /* Stopwatch */
         secs = 0;
@@ -213,6 +316,10 @@ class GameUI {
         frame.addKeyListener(new KeyAdapter() {
             @Override
             public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_M && e.isControlDown() && e.isShiftDown()) {
+                    Metrics.dump(System.err);
+                    return;
+                }
                 switch (e.getKeyCode()) {
                     case KeyEvent.VK_SPACE:
                         togglePause();
@@ -223,47 +330,54 @@ class GameUI {
                     case KeyEvent.VK_ESCAPE:
                         resetGame();
                         break;
+                    case KeyEvent.VK_J:
+                        saveJournal();
+                        break;
+                    case KeyEvent.VK_Z:
+                        undoMove();
+                        return;
+                    case KeyEvent.VK_Y:
+                        redoMove();
+                        return;
                 }
-                if (!game.checkLost() && !gamePaused && !lostAfter2048) {
-                    switch (e.getKeyCode()) {
-                        case KeyEvent.VK_UP:
-                        case KeyEvent.VK_W:
-                            game.shift(Game.Direction.UP);
-                            break;
-                        case KeyEvent.VK_DOWN:
-                        case KeyEvent.VK_S:
-                            game.shift(Game.Direction.DOWN);
-                            break;
-                        case KeyEvent.VK_LEFT:
-                        case KeyEvent.VK_A:
-                            game.shift(Game.Direction.LEFT);
-                            break;
-                        case KeyEvent.VK_RIGHT:
-                        case KeyEvent.VK_D:
-                            game.shift(Game.Direction.RIGHT);
-                            break;
-                    }
-                    updateAfterMove();
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_UP:
+                    case KeyEvent.VK_W:
+                        move(Game.Direction.UP);
+                        break;
+                    case KeyEvent.VK_DOWN:
+                    case KeyEvent.VK_S:
+                        move(Game.Direction.DOWN);
+                        break;
+                    case KeyEvent.VK_LEFT:
+                    case KeyEvent.VK_A:
+                        move(Game.Direction.LEFT);
+                        break;
+                    case KeyEvent.VK_RIGHT:
+                    case KeyEvent.VK_D:
+                        move(Game.Direction.RIGHT);
+                        break;
+                    default:
+                        if (ending == wonEnding) {
+                            move(null); // any key continues after a win
+                        }
                 }
             }
         });
 
-        /* Touchscreen listener */
-        frame.addMouseListener(new MouseAdapter() {
+        /* Touchscreen listener, also on the board since a Canvas keeps its own mouse events */
+        MouseAdapter swipes = new MouseAdapter() {
             float lastY = 0f;
             float lastX = 0f;
 
             @Override
             public void mouseReleased(MouseEvent me) {
-                if (!game.checkLost() && !gamePaused && !lostAfter2048) {
-                    float x = me.getX() - lastX;
-                    float y = me.getY() - lastY;
-                    if (Math.abs(y) > Math.abs(x)) {
-                        game.shift(y > 0 ? Game.Direction.DOWN : Game.Direction.UP);
-                    } else {
-                        game.shift(x > 0 ? Game.Direction.RIGHT : Game.Direction.LEFT);
-                    }
-                    updateAfterMove();
+                float x = me.getX() - lastX;
+                float y = me.getY() - lastY;
+                if (Math.abs(y) > Math.abs(x)) {
+                    move(y > 0 ? Game.Direction.DOWN : Game.Direction.UP);
+                } else {
+                    move(x > 0 ? Game.Direction.RIGHT : Game.Direction.LEFT);
                 }
             }
 
@@ -281,29 +395,152 @@ class GameUI {
                 lastY = me.getY();
                 lastX = me.getX();
             }
-        });
-        frame.setVisible(true);
+        };
+        frame.addMouseListener(swipes);
+        board.addMouseListener(swipes);
+        frame.revalidate();
+        scaleOnResize(frame.getHeight());
+
+        long readyNanos = System.nanoTime() - startNanos;
+        readyTime.record(readyNanos);
+        if (debug) {
+            System.err.printf("startup: playable after %.1f ms%n", readyNanos / 1e6);
+        }
+    }
+
+    /**
+     * Switches every label, the button and the tiles to a newly loaded font
+     */
+    private void applyFont(Font loaded) {
+        font = loaded;
+        if (!built) {
+            return; // build() picks it up
+        }
+        for (JLabel label : new JLabel[] {score, highScore, time, pauseState}) {
+            label.setFont(font);
+        }
+        winState.setFont(font.deriveFont(20f));
+        reset.setFont(font.deriveFont(18f));
+        scaleOnResize(frame.getHeight());
+        board.refreshFont();
+    }
+
+    /**
+     * Queues a move for the logic thread; the board catches up on the next frame
+     * @param direction direction to move, or null to only refresh the win/lose text
+     */
+    private void move(Game.Direction direction) {
+        if (!gamePaused && ending != lostEnding) {
+            stamp(direction == null ? loop.execute(g -> { }) : loop.move(direction));
+        }
+    }
+
+    /**
+     * Takes back the last move; also works once the game is lost
+     */
+    private void undoMove() {
+        if (!gamePaused) {
+            stamp(loop.undo());
+        }
+    }
+
+    private void redoMove() {
+        if (!gamePaused) {
+            stamp(loop.redo());
+        }
+    }
+
+    /**
+     * Remembers when a command was submitted, to time it once a frame shows it
+     */
+    private void stamp(long command) {
+        inputTimes[(int) (command % latencyWindow)] = System.nanoTime();
+    }
+
+    /**
+     * Called by the logic thread after each snapshot. Queues one frame on the
+     * EDT no matter how many snapshots arrive before it runs.
+     */
+    private void requestFrame() {
+        if (framePending.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::present);
+        }
     }
 
     /**
-     * Update score text, repaint tiles
-     * Check if game won/lost, start timer if needed
+     * Shows the latest snapshot: hands it to the board to animate, updates the
+     * labels and checks if the game was won/lost. Waits out the rest of the
+     * frame if the last one was under a frame ago.
      */
-    private void updateAfterMove() {
-        board.paintTile();
-        score.setText(String.format("Score: %d ", game.getScore()));
+    private void present() {
+        long now = System.nanoTime();
+        long wait = lastFrame + frameNanos - now;
+        if (wait > 0) {
+            frameTimer.setInitialDelay((int) ((wait + 999999) / 1000000));
+            frameTimer.restart();
+            return;
+        }
+        framePending.set(false);
+        GameLoop.Snapshot next = loop.latest();
+        if (next == shown || next.applied < awaitedReset) {
+            return;
+        }
+        lastFrame = now;
+        long start = presentTime.start();
+        GameLoop.Snapshot previous = shown;
+        shown = next;
+        board.show(next);
+        score.setText(String.format("Score: %d ", next.score));
         updateHiScoreText();
-        if (!got2048) {
-            checkWinGame();
-        } else {
+        updateEnding();
+        presentTime.recordSince(start);
+        if (debug) {
+            recordLatency(previous.applied, next.applied, now);
+        }
+    }
+
+    /**
+     * Shows or clears the win/lose text, stopping or starting the timer with it
+     */
+    private void updateEnding() {
+        if (shown.lost) {
+            if (ending != lostEnding) {
+                ending = lostEnding;
+                setLoseText();
+                timer.stop();
+            }
+        } else if (shown.won && !got2048) {
+            got2048 = true;
+            ending = wonEnding;
+            setWinText();
+            timer.stop();
+        } else if (ending != noEnding) { // played on after a win, or undid a loss
+            ending = noEnding;
             clearWinText();
             timer.start();
-            if (!lostAfter2048) {
-                checkLostAfter2048();
-            }
         }
     }
 
+    /**
+     * Times every command this frame caught up on, from submit to now, and
+     * shows the recent ones over the board
+     */
+    private void recordLatency(long from, long to, long now) {
+        for (long command = Math.max(from + 1, to - latencyWindow + 1); command <= to; command++) {
+            latencies[(int) (latencyCount++ % latencyWindow)] = now - inputTimes[(int) (command % latencyWindow)];
+        }
+        int count = (int) Math.min(latencyCount, latencyWindow);
+        long total = 0;
+        long max = 0;
+        for (int i = 0; i < count; i++) {
+            total += latencies[i];
+            max = Math.max(max, latencies[i]);
+        }
+        long last = latencies[(int) ((latencyCount - 1) % latencyWindow)];
+        board.setOverlay(String.format("input latency: last %.2f ms, avg %.2f ms, max %.2f ms, %d input(s) last frame",
+                last / 1e6, count == 0 ? 0 : total / 1e6 / count, max / 1e6, to - from));
+    }
+
     private void setFullscreen() {
         frame.setExtendedState(Frame.MAXIMIZED_BOTH);
         frame.dispose();
@@ -340,12 +577,20 @@ class GameUI {
      */
     private void scaleOnResize(double nHeight) {
         int height = (int) nHeight;
+        if (!built) {
+            return;
+        }
         final float titleFontScale = 8.25f;
         title.setFont(font.deriveFont(height / titleFontScale));
-        squareSize = (height / squareSizeScale);
-        if (!colorMode) {
-            board.paintTile();
-        }
+        squareSize = squareSizeFor(height);
+        board.setSquareSize(squareSize);
+    }
+
+    /**
+     * Square size for a window height, so any board size fills the area a 4x4 board would
+     */
+    private int squareSizeFor(int height) {
+        return height * 4 / (squareSizeScale * boardSize);
     }
 
     /**
@@ -353,14 +598,13 @@ class GameUI {
      */
     private void resetGame() {
         if (!gamePaused) {
-            frame.remove(board);
             colorMode = false;
+            board.setColorMode(false);
             got2048 = false;
-            lostAfter2048 = false;
-            game = new Game();
-            board = new Grid();
-            frame.add(board);
-            board.refresh();
+            recordGame(false);
+            ending = noEnding;
+            awaitedReset = loop.reset();
+            stamp(awaitedReset);
             secs = 0;
             score.setText("Score: 0 ");
             updateHiScoreText();
@@ -371,8 +615,25 @@ class GameUI {
         }
     }
 
+    /**
+     * Saves a replay of the current game to the journals folder, off the EDT
+     */
+    private void saveJournal() {
+        stamp(loop.execute(game -> {
+            Journal journal = game.getJournal().copy();
+            Path path = Paths.get(journalLocation, String.format("%d-%d.2048", journal.getSeed(), journal.length()));
+            new Thread(() -> {
+                try {
+                    journal.save(path);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "journal-writer").start();
+        }));
+    }
+
     private void updateHiScoreText() {
-        highScore.setText(String.format("High Score: %d", game.getHiScore()));
+        highScore.setText(String.format("High Score: %d", shown.hiScore));
     }
 
     /**
@@ -388,7 +649,7 @@ class GameUI {
      */
     private void unPauseGame() {
         pauseState.setText(" ");
-        if (!game.checkLost() && !got2048) {
+        if (ending == noEnding) {
             timer.start();
         }
     }
@@ -403,28 +664,29 @@ class GameUI {
     }
 
     /**
-     * Adds win text if game won
+     * Puts the game's last loss on the leaderboard as it is left, so a loss
+     * that is undone and played past only counts with its final score.
+     * The entry is handed over when the log has been replayed, waiting on it
+     * only when the window is closing.
      */
-    private void checkWinGame() {
-        if (game.checkWon()) {
-            setWinText();
-            got2048 = true;
-            timer.stop();
-        } else if (game.checkLost()) {
-            setLoseText();
-            timer.stop();
+    private void recordGame(boolean closing) {
+        if (lastLoss == null) {
+            return;
         }
-
-    }
-
-    private void checkLostAfter2048() {
-        if (game.checkLost()) {
-            setLoseText();
-            timer.stop();
+        GameLoop.Snapshot lost = lastLoss;
+        long millis = lastLossMillis;
+        lastLoss = null;
+        Consumer<Leaderboard> record = board -> board.record(lost.score, lost.maxPow, lost.moves, millis);
+        if (closing) {
+            record.accept(leaderboard.join()); // before the exit's flush
+        } else {
+            leaderboard.thenAccept(record);
         }
     }
 
     private void setLoseText() {
+        lastLoss = shown;
+        lastLossMillis = secs * 1000L;
         winState.setText("<html><center>Game Over!<br>Press ESC to play again.<center><html>");
     }
 
@@ -460,119 +722,70 @@ class GameUI {
         }
     }
 
-    private class Grid extends JPanel {
-        private final Square[][] cells = new Square[4][4];
-        private final int borderWidthScale = 19;
-
-        private Grid() {
-            this.setLayout(new GridBagLayout());
-            this.setBackground(background);
-            GridBagConstraints gbc = new GridBagConstraints();
-            for (int r = 0; r < 4; r++) {
-                for (int c = 0; c < 4; c++) {
-                    gbc.gridx = c;
-                    gbc.gridy = r;
-                    Square square = new Square(r, c, null);
-                    cells[r][c] = square;
-                    add(square, gbc);
-                }
-            }
-            paintTile();
+    /**
+     * Paints a tile's number centered in a width x height area.
+     * Kept static so it can also be drawn offscreen.
+     */
+    static void paintNumber(Graphics2D g2, String num, int pow, int width, int height, int squareSize) {
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_NORMALIZE);
+
+        /* Scale font */
+        float fontScale = tileFontScale;
+        if (num.length() > 3) {
+            fontScale -= (num.length() - 3) * tileFontDecrease;
         }
+        g2.setFont(font.deriveFont(squareSize * fontScale));
 
-        /**
-         * Updates color and number of all Squares
-         */
-        private void paintTile() {
-            for (int r = 0; r < 4; r++) {
-                for (int c = 0; c < 4; c++) {
-                    if (game.getBoard()[r][c] != null) {
-                        Color tileColor = game.getBoard()[r][c].getColor();
-                        if (colorMode) {
-                            tileColor = new Color((int) (Math.random() * 0x1000000));
-                        }
-                        cells[r][c].setBackground(tileColor);
-                        cells[r][c].setNum(game.getBoard()[r][c].toString());
-                    } else {
-                        cells[r][c].setBackground(emptySquare);
-                    }
-                    cells[r][c].setBorder(new LineBorder(background, squareSize / borderWidthScale));
-                    cells[r][c].repaint();
-                    this.repaint();
-                }
-            }
+        // change font color if it's a two or four
+        g2.setColor(twoFourFontColor);
+        if (pow > 2) {
+            g2.setColor(fontColor);
         }
 
-        /**
-         * Repaints and revalidates each Square
-         */
-        private void refresh() {
-            for (int r = 0; r < 4; r++) {
-                for (int c = 0; c < 4; c++) {
-                    cells[r][c].revalidate();
-                    cells[r][c].repaint();
-                }
-            }
-        }
+        /* Place in center and draw */
+        FontMetrics fm = g2.getFontMetrics();
+        Rectangle2D r = fm.getStringBounds(num, g2);
+        int x = (width - (int) r.getWidth()) / 2;
+        int y = (height - (int) r.getHeight()) / 2 + fm.getAscent();
+        g2.drawString(num, x, y);
     }
 
-    public class Square extends JPanel {
-        private final float fontScale = 0.42f; // font is 42% of square size for tiles between 1 and 3 digits
-        private final float fontDecrease = 0.075f; // remove 7.5% for each increase in number of digits past 3
-        private final int row;
-        private final int col;
-        private String num;
-
-        private Square(int row, int col, String num) {
-            this.row = row;
-            this.col = col;
-            this.num = num;
-        }
-
-        private void setNum(String num) {
-            this.num = num;
-        }
-
-        /**
-         * Paints numbers in middle
-         */
-        @Override
-        protected void paintComponent(Graphics g) {
-            super.paintComponent(g);
-            Graphics2D g2 = (Graphics2D) g;
-            if (game.getBoard()[row][col] != null) {
-                g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                g2.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_NORMALIZE);
-
-                /* Scale font */
-                float fontScale = this.fontScale;
-                if (num.length() > 3) {
-                    fontScale -= (num.length() - 3) * fontDecrease;
-                }
-                g2.setFont(font.deriveFont(squareSize * fontScale));
-
-                // change font color if it's a two or four
-                g2.setColor(twoFourFontColor);
-                if (game.getBoard()[row][col].getPow() > 2) {
-                    g2.setColor(fontColor);
+    /**
+     * Starts reading the high score, the leaderboard log, the bundled font and
+     * the icon on background threads, so none of them hold up the first frame.
+     */
+    private static void preload() {
+        CompletableFuture.runAsync(ScoreStore::get);
+        leaderboard = CompletableFuture.supplyAsync(Leaderboard::get);
+        clearSans = CompletableFuture.supplyAsync(() -> {
+            try (InputStream in = GameUI.class.getClassLoader().getResourceAsStream(fontResource)) {
+                if (in == null) {
+                    return new Font("Clear Sans", Font.BOLD, 17); // not bundled; maybe installed
                 }
-
-                /* Place in center and draw */
-                FontMetrics fm = g2.getFontMetrics();
-                Rectangle2D r = fm.getStringBounds(num, g2);
-                int x = (this.getWidth() - (int) r.getWidth()) / 2;
-                int y = (this.getHeight() - (int) r.getHeight()) / 2 + fm.getAscent();
-                g2.drawString(num, x, y);
+                Font loaded = Font.createFont(Font.TRUETYPE_FONT, in);
+                GraphicsEnvironment.getLocalGraphicsEnvironment().registerFont(loaded);
+                return loaded.deriveFont(17f); // the face is already bold
+            } catch (IOException | FontFormatException e) {
+                e.printStackTrace();
+                return font;
             }
-        }
-
-        @Override
-        public Dimension getPreferredSize() {
-            return new Dimension(squareSize, squareSize);
-        }
+        });
+        icon = CompletableFuture.supplyAsync(() -> {
+            URL iconURL = GameUI.class.getClassLoader().getResource(iconResource);
+            return (iconURL == null) ? null : new ImageIcon(iconURL).getImage();
+        });
     }
 
+    /**
+     * Usage: java GameUI [size], size from 3 to 8 (default 4)
+     * Run with -D2048.debug=true to print startup times.
+     */
     public static void main(String[] args) {
-        SwingUtilities.invokeLater(GameUI::new);
+        long startNanos = System.nanoTime();
+        int boardSize = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        Engine.checkSize(boardSize);
+        preload();
+        SwingUtilities.invokeLater(() -> new GameUI(boardSize, startNanos));
     }
 }
\ No newline at end of file
@@ -0,0 +1,143 @@
+import java.util.Arrays;
+
+/**
+ * Undo/redo history of packed game positions.
+ * Each entry is a board snapshot, score, RNG state and the move that led to
+ * it in parallel primitive arrays, 16 + 8 * words bytes per entry. A 4x4
+ * ArrayBoard snapshot is 2 words, so an entry is 32 bytes and 100k moves
+ * take about 3.2 MB, or 4.2 MB once the ring has doubled to 131072 slots;
+ * bigger boards add 8 bytes per eight cells.
+ * The arrays are a ring that doubles until it holds maxEntries, after which
+ * the oldest entries are overwritten. Undo and redo only move a cursor.
+ * @author Alan Huynh
+ */
+
+final class History {
+    private final int maxEntries;
+    private final int words; // longs per board snapshot
+    private long[] boards; // entry i at [i * words, (i + 1) * words)
+    private int[] scores;
+    private long[] rngStates;
+    private int[] steps; // (spawn << 2) | direction of the move into the entry
+    private int head; // slot of the oldest entry
+    private int size; // entries stored, including any that can be redone
+    private int cursor; // current entry, counted from head
+
+    /**
+     * @param words Engine.snapshotWords() of the boards to keep
+     * @param maxEntries entries kept before the oldest are dropped
+     */
+    History(int words, int maxEntries) {
+        this.words = words;
+        this.maxEntries = maxEntries;
+        int capacity = Math.min(maxEntries, 64);
+        boards = new long[capacity * words];
+        scores = new int[capacity];
+        rngStates = new long[capacity];
+        steps = new int[capacity];
+    }
+
+    /**
+     * Adds the engine's position after the current one, discarding anything
+     * that could have been redone.
+     * @param step (spawn << 2) | direction of the move that led here
+     */
+    void push(Engine engine, long rngState, int step) {
+        size = (size == 0) ? 0 : cursor + 1;
+        if (size == scores.length) {
+            if (scores.length < maxEntries) {
+                grow();
+            } else {
+                head = (head + 1) % scores.length; // drop the oldest
+                size--;
+            }
+        }
+        int slot = (head + size) % scores.length;
+        engine.save(boards, slot * words);
+        scores[slot] = engine.getScore();
+        rngStates[slot] = rngState;
+        steps[slot] = step;
+        cursor = size;
+        size++;
+    }
+
+    private void grow() {
+        int capacity = (int) Math.min((long) scores.length * 2, maxEntries);
+        boards = unwrap(boards, capacity * words, head * words);
+        scores = unwrap(scores, capacity);
+        rngStates = unwrap(rngStates, capacity, head);
+        steps = unwrap(steps, capacity);
+        head = 0;
+    }
+
+    private long[] unwrap(long[] ring, int capacity, int from) {
+        long[] copy = Arrays.copyOfRange(ring, from, from + capacity);
+        System.arraycopy(ring, 0, copy, ring.length - from, from);
+        return copy;
+    }
+
+    private int[] unwrap(int[] ring, int capacity) {
+        int[] copy = Arrays.copyOfRange(ring, head, head + capacity);
+        System.arraycopy(ring, 0, copy, ring.length - head, head);
+        return copy;
+    }
+
+    boolean canUndo() {
+        return cursor > 0;
+    }
+
+    boolean canRedo() {
+        return cursor < size - 1;
+    }
+
+    /**
+     * Steps back to the previous position.
+     * @return false if there is nothing to undo
+     */
+    boolean undo() {
+        if (!canUndo()) {
+            return false;
+        }
+        cursor--;
+        return true;
+    }
+
+    /**
+     * Steps forward to the position that was last undone.
+     * @return false if there is nothing to redo
+     */
+    boolean redo() {
+        if (!canRedo()) {
+            return false;
+        }
+        cursor++;
+        return true;
+    }
+
+    private int slot() {
+        return (head + cursor) % scores.length;
+    }
+
+    /**
+     * Loads the current position and score into an engine.
+     */
+    void restore(Engine engine) {
+        int slot = slot();
+        engine.load(boards, slot * words, scores[slot]);
+    }
+
+    int getScore() {
+        return scores[slot()];
+    }
+
+    long getRngState() {
+        return rngStates[slot()];
+    }
+
+    /**
+     * @return (spawn << 2) | direction of the move into the current position
+     */
+    int getStep() {
+        return steps[slot()];
+    }
+}
@@ -0,0 +1,324 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Compact record of a game for deterministic replay.
+ * Holds the RNG seed, board size and starting board, then one entry per move
+ * that changed the board. Up to 4x4 a move is one byte: bits 0-1 the
+ * direction, bits 2-5 the cell the tile spawned in and bit 6 set if it was a
+ * 4. Bigger boards need two bytes: bits 2-7 the cell and bit 8 the 4. Every
+ * KEYFRAME_INTERVAL moves the board, as an ArrayBoard snapshot like the one
+ * Game plays on, and the score are kept as a keyframe, so seeking replays at
+ * most that many moves.
+ * Usage: java Journal file [move]
+ * @author Alan Huynh
+ */
+
+final class Journal {
+    static final int KEYFRAME_INTERVAL = 256;
+    private static final int MAGIC = 0x32303438; // "2048"
+    private static final int VERSION = 3; // 1 had no size, always 4x4; 1 and 2 kept 4x4 keyframes packed in a long
+    private static final Game.Direction[] DIRECTIONS = Game.Direction.values();
+    private static final Metrics.Counter diskBytes = Metrics.counter("disk.bytes");
+
+    private final long seed;
+    private final int size;
+    private final int words; // longs per keyframe board
+    private final int bytesPerMove;
+    private byte[] moves;
+    private int length;
+    private long[] keyBoards; // keyframe k is the position after k * KEYFRAME_INTERVAL moves
+    private int[] keyScores;
+    private int keyframes;
+    private ArrayBoard copier; // keyframes from other engines go through it
+
+    /**
+     * @param seed seed of the game's random source
+     * @param start starting board, before any move
+     */
+    Journal(long seed, Engine start) {
+        this(seed, start.size(), new ArrayBoard(start.size()).snapshotWords());
+        saveKeyframe(start, addKeyframe(0));
+    }
+
+    private Journal(long seed, int size, int words) {
+        this.seed = seed;
+        this.size = size;
+        this.words = words;
+        this.bytesPerMove = size <= 4 ? 1 : 2;
+        this.moves = new byte[KEYFRAME_INTERVAL * bytesPerMove];
+        this.keyBoards = new long[8 * words];
+        this.keyScores = new int[8];
+    }
+
+    long getSeed() {
+        return seed;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * @return number of recorded moves
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * Appends a move that changed the board.
+     * @param direction direction moved
+     * @param spawn (cell << 4) | pow of the tile spawned after the move
+     * @param engine board and score after the spawn
+     */
+    void record(Game.Direction direction, int spawn, Engine engine) {
+        if ((length + 1) * bytesPerMove > moves.length) {
+            moves = Arrays.copyOf(moves, Math.max(KEYFRAME_INTERVAL, length * 2) * bytesPerMove);
+        }
+        int step = direction.ordinal() | (spawn >>> 4) << 2 | ((spawn & 0xF) == 2 ? 0x100 : 0);
+        if (bytesPerMove == 1) {
+            moves[length] = (byte) ((step & 0x3F) | (step & 0x100) >>> 2);
+        } else {
+            moves[2 * length] = (byte) step;
+            moves[2 * length + 1] = (byte) (step >>> 8);
+        }
+        length++;
+        if (length % KEYFRAME_INTERVAL == 0) {
+            saveKeyframe(engine, addKeyframe(engine.getScore())); // may grow keyBoards
+        }
+    }
+
+    /**
+     * Drops every move after the given one, e.g. when it is undone.
+     * @param length number of moves to keep
+     */
+    void truncate(int length) {
+        if (length < 0 || length > this.length) {
+            throw new IndexOutOfBoundsException("Move " + length + " of " + this.length);
+        }
+        this.length = length;
+        this.keyframes = length / KEYFRAME_INTERVAL + 1;
+    }
+
+    /**
+     * @return offset of the new keyframe's board in keyBoards
+     */
+    private int addKeyframe(int score) {
+        if (keyframes == keyScores.length) {
+            keyBoards = Arrays.copyOf(keyBoards, keyframes * 2 * words);
+            keyScores = Arrays.copyOf(keyScores, keyframes * 2);
+        }
+        keyScores[keyframes] = score;
+        return keyframes++ * words;
+    }
+
+    /**
+     * @return direction | cell << 2 | (0x100 if a 4 spawned) of a move
+     */
+    private int step(int move) {
+        if (bytesPerMove == 1) {
+            int b = moves[move];
+            return (b & 0x3F) | (b & 0x40) << 2;
+        }
+        return (moves[2 * move] & 0xFF) | (moves[2 * move + 1] & 0xFF) << 8;
+    }
+
+    Game.Direction direction(int move) {
+        return DIRECTIONS[step(move) & 3];
+    }
+
+    /**
+     * Saves a board as an ArrayBoard snapshot, whichever engine played it.
+     */
+    private void saveKeyframe(Engine engine, int offset) {
+        if (!(engine instanceof ArrayBoard)) { // e.g. a Bitboard recording automated play
+            if (copier == null) {
+                copier = new ArrayBoard(size);
+            }
+            for (int cell = 0; cell < size * size; cell++) {
+                copier.place(cell, engine.getPow(cell / size, cell % size));
+            }
+            engine = copier;
+        }
+        engine.save(keyBoards, offset);
+    }
+
+    /**
+     * Puts the position after the given number of moves into an engine,
+     * replaying from the nearest keyframe before it.
+     * @param move number of moves to have played, 0 to length()
+     * @param target ArrayBoard of this journal's size to load the position into
+     */
+    void seek(int move, Engine target) {
+        if (move < 0 || move > length) {
+            throw new IndexOutOfBoundsException("Move " + move + " of " + length);
+        }
+        int key = move / KEYFRAME_INTERVAL;
+        target.load(keyBoards, key * words, keyScores[key]);
+        for (int i = key * KEYFRAME_INTERVAL; i < move; i++) {
+            int step = step(i);
+            target.slide(DIRECTIONS[step & 3]);
+            target.place((step >>> 2) & 0x3F, (step & 0x100) != 0 ? 2 : 1);
+        }
+    }
+
+    /**
+     * Replays the whole journal from the start, checking that every move
+     * changes the board, every spawn lands on an empty cell and every
+     * keyframe matches.
+     * @throws IllegalStateException at the first move that disagrees
+     */
+    void verify() {
+        Engine engine = new ArrayBoard(size);
+        long[] board = new long[words];
+        engine.load(keyBoards, 0, 0);
+        for (int i = 0; i < length; i++) {
+            int step = step(i);
+            if (!engine.slide(DIRECTIONS[step & 3])) {
+                throw new IllegalStateException("Move " + i + " does not change the board");
+            }
+            int cell = (step >>> 2) & 0x3F;
+            if (cell >= size * size || engine.getPow(cell / size, cell % size) != 0) {
+                throw new IllegalStateException("Move " + i + " spawns on a tile");
+            }
+            engine.place(cell, (step & 0x100) != 0 ? 2 : 1);
+            int key = (i + 1) / KEYFRAME_INTERVAL;
+            if ((i + 1) % KEYFRAME_INTERVAL == 0) {
+                engine.save(board, 0);
+                boolean same = keyScores[key] == engine.getScore();
+                for (int w = 0; w < words; w++) {
+                    same &= keyBoards[key * words + w] == board[w];
+                }
+                if (!same) {
+                    throw new IllegalStateException("Keyframe " + key + " does not match replay");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a copy that is safe to hand to another thread
+     */
+    Journal copy() {
+        Journal copy = new Journal(seed, size, words);
+        copy.moves = Arrays.copyOf(moves, length * bytesPerMove);
+        copy.length = length;
+        copy.keyBoards = Arrays.copyOf(keyBoards, keyframes * words);
+        copy.keyScores = Arrays.copyOf(keyScores, keyframes);
+        copy.keyframes = keyframes;
+        return copy;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(size);
+        data.writeLong(seed);
+        data.writeInt(length);
+        data.write(moves, 0, length * bytesPerMove);
+        data.writeInt(keyframes);
+        for (int k = 0; k < keyframes; k++) {
+            for (int w = 0; w < words; w++) {
+                data.writeLong(keyBoards[k * words + w]);
+            }
+            data.writeInt(keyScores[k]);
+        }
+        data.flush();
+    }
+
+    static Journal readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a 2048 journal");
+        }
+        int version = data.readInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported journal version " + version);
+        }
+        int size = (version == 1) ? 4 : data.readInt();
+        Engine blank;
+        try {
+            blank = new ArrayBoard(size);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        Engine packed = version < VERSION && size == 4 ? Engine.blank(4) : null; // reads the old keyframes
+        long[] board = new long[1];
+        Journal journal = new Journal(data.readLong(), size, blank.snapshotWords());
+        int length = data.readInt();
+        journal.moves = new byte[Math.max(length, KEYFRAME_INTERVAL) * journal.bytesPerMove];
+        data.readFully(journal.moves, 0, length * journal.bytesPerMove);
+        journal.length = length;
+        int keyframes = data.readInt();
+        if (keyframes != length / KEYFRAME_INTERVAL + 1) {
+            throw new IOException("Expected " + (length / KEYFRAME_INTERVAL + 1) + " keyframes, found " + keyframes);
+        }
+        for (int k = 0; k < keyframes; k++) {
+            int offset = journal.addKeyframe(0);
+            if (packed != null) {
+                board[0] = data.readLong();
+                packed.load(board, 0, 0);
+                journal.saveKeyframe(packed, offset);
+            } else {
+                for (int w = 0; w < journal.words; w++) {
+                    journal.keyBoards[offset + w] = data.readLong();
+                }
+            }
+            journal.keyScores[k] = data.readInt();
+        }
+        return journal;
+    }
+
+    /**
+     * Saves to a file, replacing it if it exists.
+     */
+    void save(Path path) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        try (OutputStream out = Files.newOutputStream(path)) {
+            writeTo(out);
+        }
+        diskBytes.add(Files.size(path));
+    }
+
+    static Journal load(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return readFrom(in);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Journal journal = load(Paths.get(args[0]));
+        int move = args.length > 1 ? Integer.parseInt(args[1]) : journal.length();
+        Engine engine = new ArrayBoard(journal.getSize());
+
+        long start = System.nanoTime();
+        journal.verify();
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Seed %d, %d moves on %dx%d, replayed and verified at %.0f moves/s%n",
+                journal.getSeed(), journal.length(), journal.getSize(), journal.getSize(), journal.length() / secs);
+
+        journal.seek(move, engine);
+        System.out.printf("After move %d: score %d%n", move, engine.getScore());
+        for (int r = 0; r < engine.size(); r++) {
+            StringBuilder line = new StringBuilder();
+            for (int c = 0; c < engine.size(); c++) {
+                Tile tile = Tile.of(engine.getPow(r, c));
+                line.append(String.format("%7s", tile == null ? "." : tile.toString()));
+            }
+            System.out.println(line);
+        }
+    }
+}
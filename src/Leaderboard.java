@@ -0,0 +1,407 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Every finished game's score, max tile, moves, duration and date.
+ * In memory there is a top-K index of whole entries plus a histogram of all
+ * scores, so rank and percentile queries cost the same for a thousand games
+ * or millions. Recording never blocks: the index is a concurrent skip list
+ * that most scores skip entirely, the histogram is striped atomic counters,
+ * and entries go to a queue that a background thread appends to the log.
+ * The log starts with a snapshot (histogram and top K); once enough entries
+ * pile up after it, the writer rewrites it as a fresh snapshot.
+ * Usage: java Leaderboard [score]
+ * @author Alan Huynh
+ */
+
+final class Leaderboard {
+    private static final String logLocation = "src/leaderboard.log";
+    private static final int defaultTopK = 100;
+    private static final long flushIntervalMillis = 1000;
+    private static final int compactAfter = 1 << 20; // entries appended since the last snapshot
+    private static final int MAGIC = 0x4C424432; // "LBD2"
+    private static final int VERSION = 1;
+    private static final int SUB_BITS = 7; // 128 buckets per power of two: ranks within 1%
+    private static final int BUCKETS = (32 - SUB_BITS) << SUB_BITS;
+    private static final int STRIPES = 8;
+    private static final int ENTRY_BYTES = 25;
+    private static final Metrics.Counter diskBytes = Metrics.counter("disk.bytes");
+
+    /**
+     * One finished game.
+     */
+    static final class Entry {
+        final int score;
+        final int maxPow;
+        final int moves;
+        final long durationMillis;
+        final long date; // epoch millis when it was recorded
+        private long order; // ties on score go to the earlier entry
+
+        Entry(int score, int maxPow, int moves, long durationMillis, long date) {
+            this.score = score;
+            this.maxPow = maxPow;
+            this.moves = moves;
+            this.durationMillis = durationMillis;
+            this.date = date;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d (max %d, %d moves, %d s)", score, 1 << maxPow, moves, durationMillis / 1000);
+        }
+    }
+
+    private static final Comparator<Entry> BEST_FIRST = (a, b) -> a.score != b.score
+            ? Integer.compare(b.score, a.score) : Long.compare(a.order, b.order);
+
+    private final Path path;
+    private final int topK;
+    /* queried state, updated by any thread */
+    private final ConcurrentSkipListSet<Entry> top = new ConcurrentSkipListSet<>(BEST_FIRST);
+    private final AtomicInteger topSize = new AtomicInteger();
+    private volatile int floor = Integer.MIN_VALUE; // lowest score in a full index
+    private final AtomicLong nextOrder = new AtomicLong();
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+    private final LongAdder games = new LongAdder();
+    /* persisted state, touched only by the writer */
+    private final ConcurrentLinkedQueue<Entry> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushPending = new AtomicBoolean();
+    private final ScheduledExecutorService writer;
+    private final long[] savedCounts = new long[BUCKETS];
+    private final TreeSet<Entry> savedTop = new TreeSet<>(BEST_FIRST);
+    private long savedGames;
+    private long savedOrder;
+    private int appended; // entries after the snapshot in the file
+    private boolean torn; // the file ends in a partly written entry
+
+    private static final class Holder {
+        private static final Leaderboard instance = new Leaderboard(Paths.get(logLocation), defaultTopK);
+    }
+
+    /**
+     * @param path log file, created on the first write
+     * @param topK entries kept in full for exact ranks at the top
+     */
+    Leaderboard(Path path, int topK) {
+        this.path = path;
+        this.topK = topK;
+        load();
+        writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "leaderboard-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "leaderboard-flush"));
+    }
+
+    static Leaderboard get() {
+        return Holder.instance;
+    }
+
+    /**
+     * Records a finished game. Safe from any thread and never touches the disk.
+     */
+    void record(int score, int maxPow, int moves, long durationMillis) {
+        Entry entry = new Entry(score, maxPow, moves, durationMillis, System.currentTimeMillis());
+        index(entry);
+        pending.add(entry);
+        if (flushPending.compareAndSet(false, true)) {
+            writer.schedule(this::flush, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void index(Entry entry) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        counts.incrementAndGet(stripe * BUCKETS + bucket(entry.score));
+        games.increment();
+        if (entry.score <= floor) {
+            return; // the common case: nowhere near the top
+        }
+        entry.order = nextOrder.getAndIncrement();
+        top.add(entry);
+        if (topSize.incrementAndGet() > topK) {
+            if (top.pollLast() != null) {
+                topSize.decrementAndGet();
+            }
+            Entry last = top.isEmpty() ? null : top.last();
+            floor = (last == null) ? Integer.MIN_VALUE : last.score;
+        }
+    }
+
+    /**
+     * Log-linear histogram bucket: exact below 128, then 128 per power of two.
+     */
+    static int bucket(int score) {
+        if (score < (1 << SUB_BITS)) {
+            return Math.max(score, 0);
+        }
+        int exponent = 31 - Integer.numberOfLeadingZeros(score);
+        int sub = (score >>> (exponent - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+        return ((exponent - SUB_BITS + 1) << SUB_BITS) + sub;
+    }
+
+    /**
+     * @return lowest score in the bucket
+     */
+    static long bucketFloor(int bucket) {
+        if (bucket < (1 << SUB_BITS)) {
+            return bucket;
+        }
+        int exponent = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+        int sub = bucket & ((1 << SUB_BITS) - 1);
+        return (long) ((1 << SUB_BITS) + sub) << (exponent - SUB_BITS);
+    }
+
+    long games() {
+        return games.sum();
+    }
+
+    /**
+     * @return the best n entries, best first
+     */
+    List<Entry> top(int n) {
+        List<Entry> best = new ArrayList<>(Math.min(n, topK));
+        for (Iterator<Entry> it = top.iterator(); it.hasNext() && best.size() < n; ) {
+            best.add(it.next());
+        }
+        return best;
+    }
+
+    /**
+     * Where a score would place: 1 plus the games that beat it. Exact within
+     * the top K; below that, within the histogram's 1% bucket width.
+     */
+    long rank(int score) {
+        if (score > floor) {
+            Entry probe = new Entry(score, 0, 0, 0, 0);
+            probe.order = Long.MIN_VALUE; // ahead of ties, which do not beat it
+            return 1 + top.headSet(probe).size();
+        }
+        int bucket = bucket(score);
+        long above = 0;
+        for (int b = bucket + 1; b < BUCKETS; b++) {
+            above += count(b);
+        }
+        long within = count(bucket);
+        if (within > 0 && bucket >= (1 << SUB_BITS)) {
+            long low = bucketFloor(bucket);
+            long width = bucketFloor(bucket + 1) - low;
+            above += within * (low + width - 1 - score) / width; // assume the bucket is spread evenly
+        }
+        return 1 + above;
+    }
+
+    /**
+     * @return percent of recorded games that the score ties or beats
+     */
+    double percentile(int score) {
+        long total = games();
+        return total == 0 ? 100.0 : 100.0 * (total - (rank(score) - 1)) / total;
+    }
+
+    private long count(int bucket) {
+        long sum = 0;
+        for (int s = 0; s < STRIPES; s++) {
+            sum += counts.get(s * BUCKETS + bucket);
+        }
+        return sum;
+    }
+
+    /* Log file: snapshot, then fixed-width entries appended until the next compaction. */
+
+    private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+        out.writeInt(entry.score);
+        out.writeByte(entry.maxPow);
+        out.writeInt(entry.moves);
+        out.writeLong(entry.durationMillis);
+        out.writeLong(entry.date);
+    }
+
+    private static Entry readEntry(DataInputStream in) throws IOException {
+        return new Entry(in.readInt(), in.readByte(), in.readInt(), in.readLong(), in.readLong());
+    }
+
+    /**
+     * Appends what has been recorded since the last flush, compacting the
+     * log once enough has piled up.
+     */
+    private synchronized void flush() {
+        if (!flushPending.getAndSet(false)) {
+            return;
+        }
+        try {
+            if (torn || !Files.exists(path)) {
+                compact();
+            }
+            try (OutputStream file = Files.newOutputStream(path, StandardOpenOption.APPEND);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+                Entry entry;
+                while ((entry = pending.poll()) != null) {
+                    writeEntry(out, entry);
+                    save(entry);
+                    appended++;
+                    diskBytes.add(ENTRY_BYTES);
+                }
+            }
+            if (appended >= compactAfter) {
+                compact();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Folds an entry into the state the file holds.
+     */
+    private void save(Entry entry) {
+        savedCounts[bucket(entry.score)]++;
+        savedGames++;
+        keepSaved(entry);
+    }
+
+    /**
+     * Adds a copy to the saved top K, leaving the live index's entry alone.
+     */
+    private void keepSaved(Entry entry) {
+        if (savedTop.size() >= topK && entry.score <= savedTop.last().score) {
+            return;
+        }
+        Entry copy = new Entry(entry.score, entry.maxPow, entry.moves, entry.durationMillis, entry.date);
+        copy.order = savedOrder++;
+        savedTop.add(copy);
+        if (savedTop.size() > topK) {
+            savedTop.pollLast();
+        }
+    }
+
+    /**
+     * Replaces the log with a snapshot of everything written so far.
+     */
+    private void compact() throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(savedGames);
+            int used = 0;
+            for (long count : savedCounts) {
+                used += (count != 0) ? 1 : 0;
+            }
+            out.writeInt(used);
+            for (int b = 0; b < BUCKETS; b++) {
+                if (savedCounts[b] != 0) {
+                    out.writeInt(b);
+                    out.writeLong(savedCounts[b]);
+                }
+            }
+            out.writeInt(savedTop.size());
+            for (Entry entry : savedTop) {
+                writeEntry(out, entry);
+            }
+        }
+        diskBytes.add(Files.size(temp));
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        appended = 0;
+        torn = false;
+    }
+
+    /**
+     * Reads the snapshot, then replays the entries after it; a torn entry at
+     * the end from a crash is ignored.
+     */
+    private void load() {
+        try (InputStream file = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a leaderboard log: " + path);
+            }
+            savedGames = in.readLong();
+            games.add(savedGames);
+            int used = in.readInt();
+            long snapshotBytes = 24 + used * 12L;
+            for (; used > 0; used--) {
+                int b = in.readInt();
+                savedCounts[b] = in.readLong();
+                counts.addAndGet(b, savedCounts[b]);
+            }
+            int n = in.readInt();
+            snapshotBytes += (long) n * ENTRY_BYTES;
+            for (; n > 0; n--) {
+                Entry entry = readEntry(in);
+                entry.order = nextOrder.getAndIncrement();
+                keepSaved(entry);
+                top.add(entry);
+                topSize.incrementAndGet();
+            }
+            if (topSize.get() >= topK) {
+                floor = top.last().score;
+            }
+            try {
+                while (true) {
+                    Entry entry = readEntry(in);
+                    index(entry);
+                    save(entry);
+                    appended++;
+                }
+            } catch (EOFException e) {
+                // rewrite the log before appending past a torn entry
+                torn = Files.size(path) != snapshotBytes + (long) appended * ENTRY_BYTES;
+            }
+        } catch (NoSuchFileException e) {
+            // no log yet
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static void main(String[] args) {
+        Leaderboard board = get();
+        System.out.printf("%d games recorded%n", board.games());
+        List<Entry> best = board.top(10);
+        for (int i = 0; i < best.size(); i++) {
+            System.out.printf("%3d. %s%n", i + 1, best.get(i));
+        }
+        if (args.length > 0) {
+            int score = Integer.parseInt(args[0]);
+            System.out.printf("A score of %d ranks #%d, at the %.2f percentile%n",
+                    score, board.rank(score), board.percentile(score));
+        }
+    }
+}
@@ -0,0 +1,378 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Monte Carlo tree search player on packed boards, searched by a pool of threads
+ * (or on the caller's thread when there is only one worker).
+ * Each worker walks down the tree from the root by UCB1, sampling spawns like
+ * Bitboard.spawn(), until it takes a move nobody has tried from that position.
+ * It then plays random legal moves to the end of the game and adds the score
+ * made from each position on its path to the move taken there.
+ * The tree is one open-addressed table of atomics keyed by board, shared by
+ * all workers, so transpositions share statistics and nothing is locked. A
+ * visit is counted on the way down and its score only on the way back, so a
+ * rollout in flight is a virtual loss that steers the other workers to other
+ * moves. Rollouts run on longs and draw from an inline SplitMix64, with no
+ * Tile or other object made per rollout. Given a Tablebase, the root only
+ * tries the moves it rates best wherever it covers the board, which on 4x4
+ * is only the opening.
+ * @author Alan Huynh
+ */
+
+final class Mcts implements MovePolicy, Closeable {
+    private static final Game.Direction[] DIRECTIONS = Game.Direction.values();
+    private static final int MIN_TABLE_BITS = 10;
+    private static final int MAX_TABLE_BITS = 20;
+    private static final long NANOS_PER_SLOT = 1000; // a worker claims well under one slot per microsecond
+    private static final int PROBES = 16; // slots tried per position before giving up on it
+    private static final int MAX_PATH = 256; // tree moves per iteration
+    private static final double EXPLORATION = 0.5; // UCB1 constant, scaled by the node's mean score
+    private static final Metrics.Counter rolloutCount = Metrics.counter("mcts.rollouts");
+
+    private final long budgetNanos;
+    private final Tablebase tablebase; // null if none
+    private final ExecutorService pool; // null with one worker, which searches on the caller's thread
+    private final Worker[] workers;
+    private final int tableBits;
+    private final int capacity; // positions before the tree stops growing
+    private final AtomicLongArray keys; // board by slot, 0 where free
+    private final AtomicIntegerArray visits; // by slot and direction
+    private final AtomicLongArray totals; // score made after those visits
+    private final AtomicInteger used = new AtomicInteger();
+    private final int[] usedSlots; // slots to clear before the next search
+    private volatile long root;
+    private volatile int rootMoves; // directions the root may try, by bit
+    private volatile long deadline;
+
+    /**
+     * What a search found at the root.
+     */
+    static final class Result {
+        /** Most visited direction, null if no move changes the board */
+        final Game.Direction best;
+        /** Visits by Direction.ordinal() */
+        final int[] visits;
+        /** Mean score made after each direction, NaN where unvisited */
+        final double[] means;
+        final long rollouts;
+
+        private Result(Game.Direction best, int[] visits, double[] means, long rollouts) {
+            this.best = best;
+            this.visits = visits;
+            this.means = means;
+            this.rollouts = rollouts;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder().append(best).append(" after ").append(rollouts).append(" rollouts:");
+            for (Game.Direction direction : DIRECTIONS) {
+                out.append(String.format(" %s %d (%.0f)", direction, visits[direction.ordinal()],
+                        means[direction.ordinal()]));
+            }
+            return out.toString();
+        }
+    }
+
+    /**
+     * One thread's search loop and its scratch, reused across searches.
+     */
+    private final class Worker implements Runnable {
+        private final int[] pathMoves = new int[MAX_PATH]; // slot * 4 + direction
+        private final int[] pathScores = new int[MAX_PATH]; // score of each move
+        private long seed;
+        private long rollouts;
+
+        @Override
+        public void run() {
+            long done = 0;
+            do {
+                iterate();
+                done++;
+            } while (System.nanoTime() < deadline);
+            rollouts = done;
+            rolloutCount.add(done);
+        }
+
+        private void iterate() {
+            long board = root;
+            int depth = 0;
+            while (depth < MAX_PATH) {
+                int slot = find(board);
+                int legal = Bitboard.legalMoves(board) & (depth == 0 ? rootMoves : 0xF);
+                if (slot < 0 || legal == 0) {
+                    break;
+                }
+                int direction = select(slot, legal);
+                pathMoves[depth] = slot * 4 + direction;
+                pathScores[depth] = Bitboard.moveScore(board, DIRECTIONS[direction]);
+                depth++;
+                board = spawn(Bitboard.move(board, DIRECTIONS[direction]));
+                if (visits.getAndIncrement(slot * 4 + direction) == 0) {
+                    break; // first try of this move: the rest is rollout
+                }
+            }
+            long score = rollout(board);
+            while (depth-- > 0) {
+                score += pathScores[depth];
+                totals.addAndGet(pathMoves[depth], score);
+            }
+        }
+
+        /**
+         * @return an untried legal direction if there is one, else the best by UCB1
+         */
+        private int select(int slot, int legal) {
+            int parentVisits = 0;
+            long parentTotal = 0;
+            for (int d = 0; d < 4; d++) {
+                if ((legal >>> d & 1) != 0) {
+                    parentVisits += visits.get(slot * 4 + d);
+                    parentTotal += totals.get(slot * 4 + d);
+                }
+            }
+            double scale = EXPLORATION * Math.max(1.0, (double) parentTotal / Math.max(parentVisits, 1));
+            double logVisits = Math.log(Math.max(parentVisits, 1));
+            int start = (int) (next() & 3); // so workers try untried moves in different orders
+            int best = -1;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < 4; i++) {
+                int d = (start + i) & 3;
+                if ((legal >>> d & 1) == 0) {
+                    continue;
+                }
+                int n = visits.get(slot * 4 + d);
+                if (n == 0) {
+                    return d;
+                }
+                double value = (double) totals.get(slot * 4 + d) / n + scale * Math.sqrt(logVisits / n);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = d;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Plays random legal moves until the game is lost.
+         * @return score made on the way
+         */
+        private long rollout(long board) {
+            long score = 0;
+            int legal;
+            while ((legal = Bitboard.legalMoves(board)) != 0) {
+                int direction = Engine.nthSetBit(legal, (int) ((next() >>> 33) % Integer.bitCount(legal)));
+                score += Bitboard.moveScore(board, DIRECTIONS[direction]);
+                board = spawn(Bitboard.move(board, DIRECTIONS[direction]));
+            }
+            return score;
+        }
+
+        /**
+         * Puts a 2 (90%) or a 4 in a uniformly random empty cell; a move always leaves one.
+         */
+        private long spawn(long board) {
+            long empty = Bitboard.emptyMask(board);
+            long r = next();
+            int bit = Engine.nthSetBit(empty, (int) ((r >>> 33) % Long.bitCount(empty)));
+            return board | ((r & 0xFFFFFFFFL) % 10 == 0 ? 2L : 1L) << bit;
+        }
+
+        private long next() {
+            return Rng.mix(seed += Rng.GOLDEN_GAMMA);
+        }
+    }
+
+    /**
+     * The tree table is sized from the budget and thread count: one thread at
+     * 20 ms takes about 4 MB, eight threads at a second the 60 MB cap.
+     * @param budgetNanos wall clock time allowed per move
+     * @param threads workers searching each move
+     */
+    Mcts(long budgetNanos, int threads) {
+        this(budgetNanos, threads, null);
+    }
+
+    /**
+     * @param budgetNanos wall clock time allowed per move
+     * @param threads workers searching each move
+     * @param tablebase solved 4x4 table to narrow the root moves, null for none
+     */
+    Mcts(long budgetNanos, int threads, Tablebase tablebase) {
+        this.budgetNanos = budgetNanos;
+        this.tablebase = tablebase;
+        long slots = Math.max(1, budgetNanos / NANOS_PER_SLOT * threads);
+        tableBits = Math.max(MIN_TABLE_BITS, Math.min(MAX_TABLE_BITS, 65 - Long.numberOfLeadingZeros(slots)));
+        capacity = (1 << tableBits) * 3 / 4;
+        keys = new AtomicLongArray(1 << tableBits);
+        visits = new AtomicIntegerArray(4 << tableBits);
+        totals = new AtomicLongArray(4 << tableBits);
+        usedSlots = new int[1 << tableBits];
+        pool = threads == 1 ? null : Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "mcts-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        workers = new Worker[threads];
+        for (int w = 0; w < threads; w++) {
+            workers[w] = new Worker();
+        }
+    }
+
+    @Override
+    public Game.Direction choose(long board, Random randy) {
+        return search(board, budgetNanos, randy.nextLong()).best;
+    }
+
+    /**
+     * Searches a game's current position.
+     * @throws IllegalArgumentException if the board is not 4x4 or has a tile past 2^15
+     */
+    Result search(Game game, long budgetNanos, long seed) {
+        if (game.size() != 4) {
+            throw new IllegalArgumentException("Only 4x4 boards can be searched");
+        }
+        if (game.getMaxPow() > Bitboard.MAX_POW) {
+            throw new IllegalArgumentException("Tiles past " + (1 << Bitboard.MAX_POW) + " do not fit a packed board");
+        }
+        long board = 0;
+        for (int cell = 0; cell < 16; cell++) {
+            board = Bitboard.setPow(board, cell, game.getPow(cell >>> 2, cell & 3));
+        }
+        return search(board, budgetNanos, seed);
+    }
+
+    /**
+     * Searches from a board on every worker until the budget runs out.
+     * Every worker finishes at least one rollout, so the result names a legal
+     * move whenever there is one.
+     * @param budgetNanos wall clock time to search for
+     * @param seed seeds each worker's random stream
+     */
+    synchronized Result search(long board, long budgetNanos, long seed) {
+        clear();
+        root = board;
+        int covered = tablebase == null ? 0 : tablebase.bestMoves(board);
+        rootMoves = covered != 0 ? covered : 0xF;
+        deadline = System.nanoTime() + budgetNanos;
+        for (int w = 0; w < workers.length; w++) {
+            workers[w].seed = Rng.streamSeed(seed, w);
+        }
+        long rollouts;
+        if (pool == null) {
+            workers[0].run();
+            rollouts = workers[0].rollouts;
+        } else {
+            rollouts = await();
+        }
+
+        int slot = find(board);
+        int legal = Bitboard.legalMoves(board) & rootMoves;
+        int[] rootVisits = new int[4];
+        double[] means = new double[4];
+        Arrays.fill(means, Double.NaN);
+        Game.Direction best = null;
+        for (int d = 0; d < 4; d++) {
+            if ((legal >>> d & 1) == 0) {
+                continue;
+            }
+            if (slot >= 0) {
+                rootVisits[d] = visits.get(slot * 4 + d);
+                means[d] = rootVisits[d] > 0 ? (double) totals.get(slot * 4 + d) / rootVisits[d] : Double.NaN;
+            }
+            if (best == null || rootVisits[d] > rootVisits[best.ordinal()]) {
+                best = DIRECTIONS[d];
+            }
+        }
+        return new Result(best, rootVisits, means, rollouts);
+    }
+
+    /**
+     * Runs every worker on the pool and waits for them.
+     * @return rollouts finished
+     */
+    private long await() {
+        List<Future<?>> running = new ArrayList<>();
+        for (Worker worker : workers) {
+            running.add(pool.submit(worker));
+        }
+        long rollouts = 0;
+        try {
+            for (int w = 0; w < workers.length; w++) {
+                running.get(w).get();
+                rollouts += workers[w].rollouts;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while searching", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Search worker failed", e.getCause());
+        }
+        return rollouts;
+    }
+
+    /**
+     * Stops the worker threads; the policy cannot search afterwards.
+     */
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return the board's slot, claiming a free one for a new board; -1 if the table is full
+     */
+    private int find(long board) {
+        int mask = (1 << tableBits) - 1;
+        int slot = (int) ((board * Rng.GOLDEN_GAMMA) >>> (64 - tableBits));
+        for (int probe = 0; probe < PROBES; probe++, slot = (slot + 1) & mask) {
+            long key = keys.get(slot);
+            if (key == board) {
+                return slot;
+            }
+            if (key != 0) {
+                continue;
+            }
+            if (used.get() >= capacity) {
+                return -1;
+            }
+            if (keys.compareAndSet(slot, 0, board)) {
+                usedSlots[used.getAndIncrement()] = slot;
+                return slot;
+            }
+            if (keys.get(slot) == board) { // another worker claimed it for the same board
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Frees the slots the last search used, which costs as much as that search grew the tree.
+     */
+    private void clear() {
+        int count = used.get();
+        for (int i = 0; i < count; i++) {
+            int slot = usedSlots[i];
+            keys.set(slot, 0);
+            for (int d = 0; d < 4; d++) {
+                visits.set(slot * 4 + d, 0);
+                totals.set(slot * 4 + d, 0);
+            }
+        }
+        used.set(0);
+    }
+}
@@ -0,0 +1,256 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process counters and histograms for the hot paths, off unless run with
+ * -D2048.metrics=true. ENABLED is a constant, so while it is false the JIT
+ * drops every guarded call and the metrics cost nothing. Call sites keep
+ * their metric in a static field:
+ *   long start = shiftTime.start();
+ *   ... timed work ...
+ *   shiftTime.recordSince(start);
+ * Where JFR is available, timed histograms that JfrEvents knows also emit a
+ * JFR event around each call, for a recording to show alongside GC and
+ * threads. JfrEvents lives in src-jfr, built on JDK 11+, and is loaded by
+ * name so the rest still runs on Java 8.
+ * Everything is dumped at exit, or on demand with dump().
+ * @author Alan Huynh
+ */
+
+final class Metrics {
+    static final boolean ENABLED = Boolean.getBoolean("2048.metrics");
+    private static final int SUB_BITS = 3; // 8 buckets per power of two: values within 12.5%
+    private static final int BUCKETS = (64 - SUB_BITS) << SUB_BITS;
+    private static final Map<String, Object> registry = new ConcurrentSkipListMap<>();
+    private static final long started = System.nanoTime();
+    private static final Events events = ENABLED ? loadEvents() : null;
+
+    static {
+        if (ENABLED) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> dump(System.err), "metrics-dump"));
+        }
+    }
+
+    /**
+     * The JFR event types, by histogram name.
+     */
+    interface Events {
+        /**
+         * @return the event type timing the named histogram, or null for none
+         */
+        EventType type(String name);
+    }
+
+    /**
+     * One JFR event type, begun and committed on the calling thread.
+     */
+    interface EventType {
+        void begin();
+
+        void commit();
+    }
+
+    /**
+     * A count of events, e.g. moves or bytes written.
+     */
+    static final class Counter {
+        private final LongAdder count = new LongAdder();
+
+        private Counter() {
+        }
+
+        void add(long n) {
+            if (ENABLED) {
+                count.add(n);
+            }
+        }
+
+        void increment() {
+            add(1);
+        }
+
+        long get() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * A distribution of values, e.g. nanoseconds per call, in log-linear buckets.
+     */
+    static final class Histogram {
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        private final String unit;
+        private final EventType event; // null without JFR
+
+        private Histogram(String name, String unit) {
+            this.unit = unit;
+            event = events == null ? null : events.type(name);
+        }
+
+        /**
+         * @return a start time for recordSince, 0 without reading the clock while disabled
+         */
+        long start() {
+            if (!ENABLED) {
+                return 0L;
+            }
+            if (event != null) {
+                event.begin();
+            }
+            return System.nanoTime();
+        }
+
+        void record(long value) {
+            if (!ENABLED) {
+                return;
+            }
+            value = Math.max(value, 0);
+            counts.incrementAndGet(bucket(value));
+            total.add(value);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // another thread raised it first; retry against the new max
+            }
+        }
+
+        /**
+         * Records the nanoseconds since a Metrics.start() value.
+         */
+        void recordSince(long start) {
+            if (ENABLED) {
+                record(System.nanoTime() - start);
+                if (event != null) {
+                    event.commit();
+                }
+            }
+        }
+
+        long count() {
+            long sum = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                sum += counts.get(b);
+            }
+            return sum;
+        }
+
+        /**
+         * @return upper bound of the bucket holding the given fraction of values
+         */
+        long quantile(double q) {
+            long rank = (long) Math.ceil(count() * q);
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += counts.get(b);
+                if (seen >= Math.max(rank, 1)) {
+                    return Math.min(bucketFloor(b + 1) - 1, max.get());
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Loaded on first use, so management classes stay out of startup while disabled.
+     */
+    private static final class Allocation {
+        private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private static final boolean supported = threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+    }
+
+    private Metrics() {
+    }
+
+    static Counter counter(String name) {
+        return (Counter) registry.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /**
+     * @param unit "ns" for times, which are printed in microseconds, or any other unit printed as is
+     */
+    static Histogram histogram(String name, String unit) {
+        return (Histogram) registry.computeIfAbsent(name, n -> new Histogram(n, unit));
+    }
+
+    /**
+     * @return JfrEvents, or null if it was not built or the JVM has no JFR
+     */
+    private static Events loadEvents() {
+        try {
+            return (Events) Class.forName("JfrEvents").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return bytes this thread has allocated so far, 0 while disabled or where the JVM cannot tell
+     */
+    static long allocated() {
+        if (!ENABLED || !Allocation.supported) {
+            return 0L;
+        }
+        return ((com.sun.management.ThreadMXBean) Allocation.threads)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static int bucket(long value) {
+        if (value < (1 << SUB_BITS)) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+        return ((exponent - SUB_BITS + 1) << SUB_BITS) + sub;
+    }
+
+    /**
+     * @return lowest value in the bucket, Long.MAX_VALUE past the last one
+     */
+    static long bucketFloor(int bucket) {
+        if (bucket < (1 << SUB_BITS)) {
+            return bucket;
+        }
+        if (bucket >= BUCKETS) {
+            return Long.MAX_VALUE;
+        }
+        int exponent = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+        int sub = bucket & ((1 << SUB_BITS) - 1);
+        return (long) ((1 << SUB_BITS) + sub) << (exponent - SUB_BITS);
+    }
+
+    /**
+     * Prints every metric: counters with their rate since startup, histograms
+     * with count, mean and percentiles.
+     */
+    static void dump(PrintStream out) {
+        double secs = (System.nanoTime() - started) / 1e9;
+        out.printf("metrics after %.1f s%s%n", secs, !ENABLED ? " (disabled, run with -D2048.metrics=true)"
+                : events == null ? " (no JFR events)" : "");
+        for (Map.Entry<String, Object> entry : registry.entrySet()) {
+            if (entry.getValue() instanceof Counter) {
+                long count = ((Counter) entry.getValue()).get();
+                out.printf("  %-22s %12d  %12.1f/s%n", entry.getKey(), count, count / secs);
+                continue;
+            }
+            Histogram histogram = (Histogram) entry.getValue();
+            long count = histogram.count();
+            if (count == 0) {
+                out.printf("  %-22s %12d%n", entry.getKey(), 0);
+                continue;
+            }
+            double scale = histogram.unit.equals("ns") ? 1e3 : 1;
+            String unit = histogram.unit.equals("ns") ? "us" : histogram.unit;
+            out.printf("  %-22s %12d  mean %.1f, p50 %.1f, p99 %.1f, max %.1f %s%n", entry.getKey(), count,
+                    histogram.total.sum() / scale / count, histogram.quantile(0.50) / scale,
+                    histogram.quantile(0.99) / scale, histogram.max.get() / scale, unit);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+import java.util.Random;
+
+/**
+ * Chooses moves for headless play.
+ * Policies may keep per-game scratch state, so each worker thread gets its own.
+ * @author Alan Huynh
+ */
+
+interface MovePolicy {
+    /**
+     * Picks the next move for the given board.
+     * @param board packed board, see Bitboard
+     * @param randy the calling worker's random source
+     * @return direction to move
+     */
+    Game.Direction choose(long board, Random randy);
+
+    /**
+     * Uniformly random moves.
+     */
+    static MovePolicy random() {
+        Game.Direction[] directions = Game.Direction.values();
+        return (board, randy) -> directions[randy.nextInt(directions.length)];
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.Random;
+
+/**
+ * SplitMix64 random source.
+ * Its whole state is one long, so a game's RNG can be saved and restored
+ * along with the board. Not synchronized: each game or thread draws from its
+ * own, either split off a parent or derived from a parent seed by index.
+ * @author Alan Huynh
+ */
+
+final class Rng extends Random {
+    private static final long serialVersionUID = 1L;
+    static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private long state;
+
+    Rng(long seed) {
+        super(seed);
+        this.state = seed;
+    }
+
+    /**
+     * Seed of stream number index under a parent seed. It depends only on
+     * those two values, so game i spawns the same tiles whichever of however
+     * many workers plays it.
+     */
+    static long streamSeed(long parentSeed, long index) {
+        long z = parentSeed + index * GOLDEN_GAMMA;
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL; // a different finalizer than nextLong
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+
+    /**
+     * @return a new generator seeded from this one, e.g. for a worker thread
+     */
+    Rng split() {
+        return new Rng(streamSeed(nextLong(), 0));
+    }
+
+    long getState() {
+        return state;
+    }
+
+    void setState(long state) {
+        this.state = state;
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        this.state = seed;
+    }
+
+    @Override
+    public long nextLong() {
+        return mix(state += GOLDEN_GAMMA);
+    }
+
+    /**
+     * Output for a state already advanced by GOLDEN_GAMMA, for code that keeps
+     * many states in an array instead of many Rng objects.
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Precomputed moves for every packed 4-cell row.
+ * A row is 16 bits with column 0 in its lowest nibble, so there are only
+ * 65536 of them; each move on a Bitboard becomes one lookup per row.
+ * Tables are built once when the class loads. Running with -ea also checks
+ * them against the original shorten/compress logic.
+ * @author Alan Huynh
+ */
+
+final class RowTable {
+    private static final int ROWS = 1 << 16;
+
+    /** Row compressed towards column 0 */
+    static final char[] LEFT = new char[ROWS];
+    /** Row compressed towards column 3 */
+    static final char[] RIGHT = new char[ROWS];
+    /** Score gained by compressing the row; the same in either direction */
+    static final int[] SCORE = new int[ROWS];
+    /** Bit 0 set if moving left changes the row, bit 1 if moving right does */
+    private static final byte[] CHANGED = new byte[ROWS];
+
+    static {
+        for (int row = 0; row < ROWS; row++) {
+            int gained = 0;
+            int result = 0;
+            int filled = 0;
+            int pending = 0;
+            for (int i = 0; i < 4; i++) {
+                int pow = (row >>> (i << 2)) & 0xF;
+                if (pow == 0) {
+                    continue;
+                }
+                if (pow == pending && pow < Bitboard.MAX_POW) {
+                    result |= (pow + 1) << (filled++ << 2);
+                    gained += 1 << (pow + 1);
+                    pending = 0;
+                } else {
+                    if (pending != 0) {
+                        result |= pending << (filled++ << 2);
+                    }
+                    pending = pow;
+                }
+            }
+            if (pending != 0) {
+                result |= pending << (filled << 2);
+            }
+            LEFT[row] = (char) result;
+            SCORE[row] = gained;
+        }
+        for (int row = 0; row < ROWS; row++) {
+            RIGHT[row] = (char) reverseRow(LEFT[reverseRow(row)]);
+            CHANGED[row] = (byte) ((LEFT[row] != row ? 1 : 0) | (RIGHT[row] != row ? 2 : 0));
+        }
+        assert selfCheck();
+    }
+
+    private RowTable() {
+    }
+
+    static boolean changedLeft(int row) {
+        return (CHANGED[row] & 1) != 0;
+    }
+
+    static boolean changedRight(int row) {
+        return (CHANGED[row] & 2) != 0;
+    }
+
+    /**
+     * @return bit 0 set if moving left changes the row, bit 1 if moving right does
+     */
+    static int movable(int row) {
+        return CHANGED[row];
+    }
+
+    /**
+     * Mirrors a packed row so column 0 and column 3 swap.
+     */
+    static int reverseRow(int row) {
+        return ((row & 0xF) << 12) | ((row & 0xF0) << 4) | ((row >>> 4) & 0xF0) | (row >>> 12);
+    }
+
+    /**
+     * Compares every entry against the original array-based compress.
+     * @return true if all tables agree
+     * @throws IllegalStateException naming the first row that disagrees
+     */
+    static boolean selfCheck() {
+        int[] sub = new int[4];
+        for (int row = 0; row < ROWS; row++) {
+            for (int i = 0; i < 4; i++) {
+                sub[i] = (row >>> (i << 2)) & 0xF;
+            }
+            int gained = compress(sub);
+            int left = 0;
+            for (int i = 0; i < 4; i++) {
+                left |= sub[i] << (i << 2);
+            }
+            int reversed = reverseRow(row);
+            if (LEFT[row] != left || SCORE[row] != gained
+                    || RIGHT[reversed] != reverseRow(left) || SCORE[reversed] != gained
+                    || changedLeft(row) != (left != row)) {
+                throw new IllegalStateException("Row table mismatch at " + Integer.toHexString(row));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove all the empty spaces between exponents in a sub-array
+     * @param sub sub-array to remove spaces from
+     */
+    private static void shorten(int[] sub) {
+        for (int j = 0; j < 4; j++) {
+            if (sub[j] == 0) {
+                for (int i = j + 1; i < 4; i++) {
+                    if (sub[i] != 0) {
+                        sub[j] = sub[i];
+                        sub[i] = 0;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes a row of exponents and compresses it in the negative direction.
+     * First removes any empty space, combines tiles, and removes space again.
+     * @param sub row to compress, modified in place
+     * @return score gained
+     */
+    private static int compress(int[] sub) {
+        int gained = 0;
+        shorten(sub);
+        for (int i = 0; i < 3; i++) {
+            if (sub[i] != 0 && sub[i] < Bitboard.MAX_POW && sub[i + 1] == sub[i]) {
+                sub[i + 1] = 0;
+                sub[i]++;
+                gained += 1 << sub[i];
+            }
+        }
+        shorten(sub);
+        return gained;
+    }
+}
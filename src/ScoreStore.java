@@ -0,0 +1,129 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Write-behind store for the high score in 'high_score.txt'.
+ * The file is read once per process; after that the score lives in memory and
+ * new highs are written by a background thread at most once per flush
+ * interval, however many arrive in between. Each write goes to a temp file
+ * that is renamed over the old one, so a crash never leaves a truncated file.
+ * @author Alan Huynh
+ */
+
+final class ScoreStore {
+    private static final String scoreLocation = "src/high_score.txt";
+    private static final long flushIntervalMillis = 1000;
+    private static final Metrics.Histogram loadTime = Metrics.histogram("score.load", "ns");
+    private static final Metrics.Histogram saveTime = Metrics.histogram("score.save", "ns");
+    private static final Metrics.Counter diskBytes = Metrics.counter("disk.bytes");
+
+    private final Path path;
+    private final AtomicInteger hiScore = new AtomicInteger();
+    private final AtomicBoolean flushPending = new AtomicBoolean();
+    private final ScheduledExecutorService writer;
+
+    /**
+     * Loaded on first use, so the read happens once per process.
+     */
+    private static final class Holder {
+        private static final ScoreStore instance = new ScoreStore(Paths.get(scoreLocation));
+    }
+
+    private ScoreStore(Path path) {
+        this.path = path;
+        hiScore.set(load());
+        writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "high-score-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "high-score-flush"));
+    }
+
+    static ScoreStore get() {
+        return Holder.instance;
+    }
+
+    int getHiScore() {
+        return hiScore.get();
+    }
+
+    /**
+     * Records a score; if it is a new high, schedules a write unless one is
+     * already pending. Never touches the disk itself.
+     * @param score score to record
+     */
+    void offer(int score) {
+        int current;
+        do {
+            current = hiScore.get();
+            if (score <= current) {
+                return;
+            }
+        } while (!hiScore.compareAndSet(current, score));
+        if (flushPending.compareAndSet(false, true)) {
+            writer.schedule(this::flush, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes the current high score if a write is pending.
+     */
+    private synchronized void flush() {
+        if (!flushPending.getAndSet(false)) {
+            return;
+        }
+        long start = saveTime.start();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            String text = String.valueOf(hiScore.get());
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(text);
+            }
+            diskBytes.add(text.length());
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        saveTime.recordSince(start);
+    }
+
+    /**
+     * Reads the high score, 0 if there is no file yet.
+     */
+    private int load() {
+        long start = loadTime.start();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String num = reader.readLine();
+            return (num == null) ? 0 : Integer.parseInt(num.trim());
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
+            return 0;
+        } finally {
+            loadTime.recordSince(start);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * One game hosted by GameServer on a board other than 4x4; those live
+ * packed in SessionStore instead.
+ * Runs straight on the engine with the same one step of undo as the store,
+ * so a hosted game undoes alike whatever its size; every method locks
+ * only this session, so requests for different sessions never wait on each
+ * other and requests for the same one are applied one at a time.
+ * @author Alan Huynh
+ */
+
+final class Session {
+    static final int UNDO_LIMIT = 1; // SessionStore keeps one previous position in its ~70 bytes
+
+    private final long id;
+    private final Rng randy;
+    private final Engine engine;
+    private final History history;
+    private int moves;
+
+    /**
+     * @param id key the session is stored under
+     * @param size board width and height
+     * @param seed seed for tile spawns
+     */
+    Session(long id, int size, long seed) {
+        this.id = id;
+        this.randy = new Rng(seed);
+        this.engine = Engine.create(size, randy);
+        this.history = new History(engine.snapshotWords(), UNDO_LIMIT + 1);
+        history.push(engine, randy.getState(), 0);
+    }
+
+    long getId() {
+        return id;
+    }
+
+    /**
+     * Moves as Game.shift does, without touching the high score.
+     * @return true if the board changed
+     */
+    synchronized boolean move(Game.Direction direction) {
+        if (!engine.shift(direction)) {
+            return false;
+        }
+        moves++;
+        history.push(engine, randy.getState(), (engine.getLastSpawn() << 2) | direction.ordinal());
+        return true;
+    }
+
+    /**
+     * @return false if there is nothing left to undo
+     */
+    synchronized boolean undo() {
+        if (!history.undo()) {
+            return false;
+        }
+        moves--;
+        history.restore(engine);
+        randy.setState(history.getRngState());
+        return true;
+    }
+
+    /**
+     * Writes the session as a JSON object; the board is tile values, row by row.
+     * @param moved whether the request that led here changed the board
+     */
+    synchronized void appendJson(StringBuilder out, boolean moved) {
+        appendJson(out, id, engine, moves, moved);
+    }
+
+    /**
+     * Writes any hosted game in the same shape, e.g. one from SessionStore.
+     */
+    static void appendJson(StringBuilder out, long id, Engine engine, int moves, boolean moved) {
+        int size = engine.size();
+        out.append("{\"id\":").append(id)
+                .append(",\"size\":").append(size)
+                .append(",\"score\":").append(engine.getScore())
+                .append(",\"moves\":").append(moves)
+                .append(",\"moved\":").append(moved)
+                .append(",\"won\":").append(engine.checkWon())
+                .append(",\"lost\":").append(engine.checkLost())
+                .append(",\"board\":[");
+        for (int r = 0; r < size; r++) {
+            out.append(r == 0 ? "[" : ",[");
+            for (int c = 0; c < size; c++) {
+                int pow = engine.getPow(r, c);
+                out.append(c == 0 ? "" : ",").append(pow == 0 ? 0 : 1 << pow);
+            }
+            out.append(']');
+        }
+        out.append("]}");
+    }
+}
@@ -0,0 +1,454 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Dense store for hosted 4x4 games.
+ * A session is a packed board, score, RNG state and move count, plus the
+ * position before its last move for one step of undo: about 70 bytes of
+ * primitive arrays, with no objects per session. Sessions are split across
+ * shards by id; each shard has its own arrays, index, LRU list and lock, so
+ * there is no global lock. When a shard is full its least recently used
+ * session is written to the shard's memory-mapped spill file, and it is
+ * read back the next time it is asked for.
+ * @author Alan Huynh
+ */
+
+final class SessionStore {
+    /** Returned by move and undo when there is no such session */
+    static final int MISSING = -1;
+
+    private static final int RECORD_BYTES = 56;
+    private static final int SEGMENT_RECORDS = 1 << 16; // records per mapped segment
+    private static final Metrics.Counter diskBytes = Metrics.counter("disk.bytes");
+
+    private final Shard[] shards;
+
+    /**
+     * What a session looks like after an operation; filled in by the store.
+     */
+    static final class Position {
+        long board;
+        int score;
+        int moves;
+    }
+
+    /**
+     * @param capacity sessions kept in memory across all shards
+     * @param spillDirectory where evicted sessions are written
+     */
+    SessionStore(int capacity, Path spillDirectory) throws IOException {
+        Files.createDirectories(spillDirectory);
+        int count = Integer.highestOneBit(Math.max(1, Math.min(64, capacity / 1024)));
+        shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(Math.max(1, capacity / count), spillDirectory.resolve("sessions-" + i + ".bin"));
+        }
+    }
+
+    /**
+     * Starts a session as new Bitboard(new Rng(seed)) would.
+     * @param id key for the session, never 0 and not already in use
+     */
+    void create(long id, long seed, Position out) {
+        shard(id).create(id, seed, out);
+    }
+
+    /**
+     * Moves as Game.shift does.
+     * @return 1 if the board changed, 0 if not, MISSING if there is no such session
+     */
+    int move(long id, Game.Direction direction, Position out) {
+        return shard(id).move(id, direction, out);
+    }
+
+    /**
+     * Takes back the last move; only one step is kept, Session.UNDO_LIMIT.
+     * @return 1 if a move was undone, 0 if not, MISSING if there is no such session
+     */
+    int undo(long id, Position out) {
+        return shard(id).undo(id, out);
+    }
+
+    /**
+     * @return false if there is no such session
+     */
+    boolean read(long id, Position out) {
+        return shard(id).read(id, out);
+    }
+
+    /**
+     * @return sessions held in memory
+     */
+    int resident() {
+        int total = 0;
+        for (Shard shard : shards) {
+            total += shard.resident();
+        }
+        return total;
+    }
+
+    /**
+     * @return sessions written out to the spill files
+     */
+    int spilled() {
+        int total = 0;
+        for (Shard shard : shards) {
+            total += shard.spilled();
+        }
+        return total;
+    }
+
+    private Shard shard(long id) {
+        return shards[(int) (mix(id) >>> 32) & (shards.length - 1)]; // indexes inside a shard use the low bits
+    }
+
+    private static long mix(long id) {
+        return Rng.mix(id * Rng.GOLDEN_GAMMA);
+    }
+
+    /**
+     * One lock's worth of sessions.
+     */
+    private static final class Shard {
+        private final int capacity;
+        /* per slot */
+        private final long[] ids;
+        private final long[] boards;
+        private final int[] scores;
+        private final long[] rngStates;
+        private final int[] moves;
+        private final long[] prevBoards; // 0 when there is nothing to undo
+        private final int[] prevScores;
+        private final long[] prevRngStates;
+        private final int[] older; // LRU list, towards the eviction end
+        private final int[] newer;
+        private final int[] index; // open addressing, slot + 1 per entry, 0 for none
+        private int used;
+        private int newest = -1;
+        private int oldest = -1;
+        /* spill file */
+        private final Path spillPath;
+        private FileChannel channel;
+        private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+        private long[] spillIds = new long[16]; // open addressing, 0 for none
+        private int[] spillRecords = new int[16];
+        private int spillCount;
+        private int[] freeRecords = new int[16];
+        private int freeCount;
+        private int records;
+        /* scratch engine for moves */
+        private final Rng randy = new Rng(0);
+        private final Bitboard engine = new Bitboard(randy, 0L, 0);
+
+        private Shard(int capacity, Path spillPath) {
+            this.capacity = capacity;
+            this.spillPath = spillPath;
+            ids = new long[capacity];
+            boards = new long[capacity];
+            scores = new int[capacity];
+            rngStates = new long[capacity];
+            moves = new int[capacity];
+            prevBoards = new long[capacity];
+            prevScores = new int[capacity];
+            prevRngStates = new long[capacity];
+            older = new int[capacity];
+            newer = new int[capacity];
+            index = new int[Integer.highestOneBit(capacity) << 2]; // at most half full
+        }
+
+        synchronized void create(long id, long seed, Position out) {
+            Rng seeded = new Rng(seed);
+            Bitboard start = new Bitboard(seeded);
+            int slot = allocate(id);
+            boards[slot] = start.getBoard();
+            scores[slot] = 0;
+            rngStates[slot] = seeded.getState();
+            moves[slot] = 0;
+            prevBoards[slot] = 0L;
+            fill(slot, out);
+        }
+
+        synchronized int move(long id, Game.Direction direction, Position out) {
+            int slot = find(id);
+            if (slot < 0) {
+                return MISSING;
+            }
+            randy.setState(rngStates[slot]);
+            engine.load(boards[slot], scores[slot]);
+            boolean moved = engine.shift(direction);
+            if (moved) {
+                prevBoards[slot] = boards[slot];
+                prevScores[slot] = scores[slot];
+                prevRngStates[slot] = rngStates[slot];
+                boards[slot] = engine.getBoard();
+                scores[slot] = engine.getScore();
+                rngStates[slot] = randy.getState();
+                moves[slot]++;
+            }
+            fill(slot, out);
+            return moved ? 1 : 0;
+        }
+
+        synchronized int undo(long id, Position out) {
+            int slot = find(id);
+            if (slot < 0) {
+                return MISSING;
+            }
+            boolean undone = prevBoards[slot] != 0L;
+            if (undone) {
+                boards[slot] = prevBoards[slot];
+                scores[slot] = prevScores[slot];
+                rngStates[slot] = prevRngStates[slot];
+                moves[slot]--;
+                prevBoards[slot] = 0L;
+            }
+            fill(slot, out);
+            return undone ? 1 : 0;
+        }
+
+        synchronized boolean read(long id, Position out) {
+            int slot = find(id);
+            if (slot < 0) {
+                return false;
+            }
+            fill(slot, out);
+            return true;
+        }
+
+        synchronized int resident() {
+            return used;
+        }
+
+        synchronized int spilled() {
+            return spillCount;
+        }
+
+        private void fill(int slot, Position out) {
+            out.board = boards[slot];
+            out.score = scores[slot];
+            out.moves = moves[slot];
+        }
+
+        /**
+         * Slot of a session, faulting it in from the spill file if needed,
+         * and marks it most recently used.
+         * @return -1 if there is no such session
+         */
+        private int find(long id) {
+            int slot = lookup(id);
+            if (slot < 0) {
+                return faultIn(id);
+            }
+            touch(slot);
+            return slot;
+        }
+
+        private int lookup(long id) {
+            int mask = index.length - 1;
+            for (int i = (int) mix(id) & mask; index[i] != 0; i = (i + 1) & mask) {
+                if (ids[index[i] - 1] == id) {
+                    return index[i] - 1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * A free slot for a new session, evicting the oldest one if full.
+         */
+        private int allocate(long id) {
+            int slot;
+            if (used < capacity) {
+                slot = used++;
+            } else {
+                slot = oldest;
+                spill(slot);
+                unlink(slot);
+                unindex(ids[slot]);
+            }
+            ids[slot] = id;
+            int mask = index.length - 1;
+            int i = (int) mix(id) & mask;
+            while (index[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            index[i] = slot + 1;
+            linkNewest(slot);
+            return slot;
+        }
+
+        /**
+         * Removes an id from the index, shifting later entries of its probe
+         * run back so lookups never stop early.
+         */
+        private void unindex(long id) {
+            int mask = index.length - 1;
+            int i = (int) mix(id) & mask;
+            while (ids[index[i] - 1] != id) {
+                i = (i + 1) & mask;
+            }
+            for (int j = (i + 1) & mask; index[j] != 0; j = (j + 1) & mask) {
+                int home = (int) mix(ids[index[j] - 1]) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) { // entry can move back into the hole
+                    index[i] = index[j];
+                    i = j;
+                }
+            }
+            index[i] = 0;
+        }
+
+        private void touch(int slot) {
+            if (slot != newest) {
+                unlink(slot);
+                linkNewest(slot);
+            }
+        }
+
+        private void linkNewest(int slot) {
+            older[slot] = newest;
+            newer[slot] = -1;
+            if (newest >= 0) {
+                newer[newest] = slot;
+            }
+            newest = slot;
+            if (oldest < 0) {
+                oldest = slot;
+            }
+        }
+
+        private void unlink(int slot) {
+            if (older[slot] >= 0) {
+                newer[older[slot]] = newer[slot];
+            } else {
+                oldest = newer[slot];
+            }
+            if (newer[slot] >= 0) {
+                older[newer[slot]] = older[slot];
+            } else {
+                newest = older[slot];
+            }
+        }
+
+        /* Spill file: fixed-width records, found through an id -> record index. */
+
+        private void spill(int slot) {
+            int record = freeCount > 0 ? freeRecords[--freeCount] : records++;
+            ByteBuffer buffer = record(record);
+            buffer.putLong(ids[slot]).putLong(boards[slot]).putInt(scores[slot])
+                    .putLong(rngStates[slot]).putInt(moves[slot])
+                    .putLong(prevBoards[slot]).putInt(prevScores[slot]).putLong(prevRngStates[slot]);
+            diskBytes.add(RECORD_BYTES);
+            putSpilled(ids[slot], record);
+        }
+
+        private int faultIn(long id) {
+            int at = spillSlot(id);
+            if (spillIds[at] == 0L) {
+                return -1;
+            }
+            int record = spillRecords[at];
+            removeSpilled(at);
+            if (freeCount == freeRecords.length) {
+                freeRecords = Arrays.copyOf(freeRecords, freeCount * 2);
+            }
+            freeRecords[freeCount++] = record;
+            ByteBuffer buffer = record(record);
+            buffer.getLong(); // id
+            long board = buffer.getLong();
+            int score = buffer.getInt();
+            long rngState = buffer.getLong();
+            int moveCount = buffer.getInt();
+            long prevBoard = buffer.getLong();
+            int prevScore = buffer.getInt();
+            long prevRngState = buffer.getLong();
+            // allocate may spill the oldest session into the record just freed, so it is read first
+            int slot = allocate(id);
+            boards[slot] = board;
+            scores[slot] = score;
+            rngStates[slot] = rngState;
+            moves[slot] = moveCount;
+            prevBoards[slot] = prevBoard;
+            prevScores[slot] = prevScore;
+            prevRngStates[slot] = prevRngState;
+            return slot;
+        }
+
+        /**
+         * @return a view of one record, positioned at its start
+         */
+        private ByteBuffer record(int record) {
+            int segment = record / SEGMENT_RECORDS;
+            if (segment >= segments.length) {
+                mapSegment(segment);
+            }
+            ByteBuffer buffer = segments[segment].duplicate();
+            buffer.position((record % SEGMENT_RECORDS) * RECORD_BYTES);
+            return buffer;
+        }
+
+        private void mapSegment(int segment) {
+            try {
+                if (channel == null) {
+                    channel = FileChannel.open(spillPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                    spillPath.toFile().deleteOnExit();
+                }
+                segments = Arrays.copyOf(segments, segment + 1);
+                long segmentBytes = (long) SEGMENT_RECORDS * RECORD_BYTES;
+                segments[segment] = channel.map(FileChannel.MapMode.READ_WRITE, segment * segmentBytes, segmentBytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't map " + spillPath, e);
+            }
+        }
+
+        private int spillSlot(long id) {
+            int mask = spillIds.length - 1;
+            int i = (int) mix(id) & mask;
+            while (spillIds[i] != 0L && spillIds[i] != id) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        private void putSpilled(long id, int record) {
+            if ((spillCount + 1) * 2 > spillIds.length) {
+                long[] oldIds = spillIds;
+                int[] oldRecords = spillRecords;
+                spillIds = new long[oldIds.length * 2];
+                spillRecords = new int[oldIds.length * 2];
+                for (int i = 0; i < oldIds.length; i++) {
+                    if (oldIds[i] != 0L) {
+                        int at = spillSlot(oldIds[i]);
+                        spillIds[at] = oldIds[i];
+                        spillRecords[at] = oldRecords[i];
+                    }
+                }
+            }
+            int at = spillSlot(id);
+            spillIds[at] = id;
+            spillRecords[at] = record;
+            spillCount++;
+        }
+
+        private void removeSpilled(int i) {
+            int mask = spillIds.length - 1;
+            for (int j = (i + 1) & mask; spillIds[j] != 0L; j = (j + 1) & mask) {
+                int home = (int) mix(spillIds[j]) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    spillIds[i] = spillIds[j];
+                    spillRecords[i] = spillRecords[j];
+                    i = j;
+                }
+            }
+            spillIds[i] = 0L;
+            spillCount--;
+        }
+    }
+}
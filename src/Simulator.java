@@ -0,0 +1,255 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Headless batch runner: plays many games with a move policy across all cores.
+ * Games run straight on Bitboard, so there is no Swing or disk work per game.
+ * Game i always draws from Rng.streamSeed(seed, i), so with a deterministic
+ * policy a seed gives the same games whatever the thread count.
+ * With "record" every game also goes on the Leaderboard; with "export=dir"
+ * every move is written to a TrainingSet in that directory; with
+ * "tablebase=file" a solved 4x4 Tablebase picks among the policy's moves
+ * wherever it covers the board.
+ * Usage: java Simulator [games] [policy] [threads] [seed] [record] [export=dir] [tablebase=file]
+ * @author Alan Huynh
+ */
+
+final class Simulator {
+    private static final int CHUNK = 64; // games claimed by a worker at a time
+    private static final Game.Direction[] DIRECTIONS = Game.Direction.values();
+    private static final long EXPECTIMAX_BUDGET = 5000000L; // 5 ms per move
+    private static final long MCTS_BUDGET = 20000000L; // 20 ms per move, on the worker's own thread
+
+    /**
+     * Totals for one batch. Per-game scores are kept so percentiles are exact.
+     */
+    static final class Result {
+        final int[] scores;
+        final long[] maxTiles = new long[Bitboard.MAX_POW + 1];
+        long moves;
+        long nanos;
+
+        private Result(int games) {
+            scores = new int[games];
+        }
+
+        int games() {
+            return scores.length;
+        }
+
+        private void add(Tally tally) {
+            moves += tally.moves;
+            for (int i = 0; i < maxTiles.length; i++) {
+                maxTiles[i] += tally.maxTiles[i];
+            }
+        }
+    }
+
+    /**
+     * A worker's private counters, merged once the worker is done.
+     */
+    private static final class Tally {
+        final long[] maxTiles = new long[Bitboard.MAX_POW + 1];
+        long moves;
+    }
+
+    private Simulator() {
+    }
+
+    /**
+     * Plays a batch of games to completion.
+     * @param games number of games to play
+     * @param policies makes one policy per worker
+     * @param threads worker count
+     * @param seed parent seed of every game's random stream
+     * @return batch totals
+     */
+    static Result run(int games, Supplier<MovePolicy> policies, int threads, long seed) {
+        return run(games, policies, threads, seed, null, null);
+    }
+
+    /**
+     * @param leaderboard where to record each finished game, or null
+     * @param export where to write every move, or null
+     */
+    static Result run(int games, Supplier<MovePolicy> policies, int threads, long seed, Leaderboard leaderboard,
+                      TrainingSet export) {
+        Result result = new Result(games);
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Tally>> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            workers.add(pool.submit(() -> {
+                MovePolicy policy = policies.get();
+                Rng randy = new Rng(seed);
+                Tally tally = new Tally();
+                TrainingSet.Producer producer = (export == null) ? null : export.producer();
+                int from;
+                while ((from = next.getAndAdd(CHUNK)) < games) {
+                    int to = Math.min(games, from + CHUNK);
+                    for (int g = from; g < to; g++) {
+                        randy.setState(Rng.streamSeed(seed, g));
+                        result.scores[g] = play(policy, randy, tally, leaderboard, producer);
+                    }
+                }
+                if (producer != null) {
+                    producer.close();
+                }
+                return tally;
+            }));
+        }
+        try {
+            for (Future<Tally> worker : workers) {
+                result.add(worker.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Plays one game until it is lost. If the policy picks a move that does
+     * nothing, the first legal direction is taken instead.
+     * @return final score
+     */
+    private static int play(MovePolicy policy, Random randy, Tally tally, Leaderboard leaderboard,
+                            TrainingSet.Producer producer) {
+        long start = System.nanoTime();
+        long movesBefore = tally.moves;
+        Bitboard game = new Bitboard(randy);
+        while (!game.checkLost()) {
+            long board = game.getBoard();
+            int score = game.getScore();
+            Game.Direction direction = policy.choose(board, randy);
+            if (!game.shift(direction)) {
+                for (Game.Direction legal : DIRECTIONS) {
+                    if (game.shift(legal)) {
+                        direction = legal;
+                        break;
+                    }
+                }
+            }
+            if (producer != null) {
+                producer.add(board, direction, game.getScore() - score, game.getBoard(), game.checkLost());
+            }
+            tally.moves++;
+        }
+        int maxPow = Bitboard.maxPow(game.getBoard());
+        tally.maxTiles[maxPow]++;
+        if (leaderboard != null) {
+            leaderboard.record(game.getScore(), maxPow, (int) (tally.moves - movesBefore),
+                    (System.nanoTime() - start) / 1000000);
+        }
+        return game.getScore();
+    }
+
+    static Supplier<MovePolicy> policy(String name) {
+        return policy(name, null);
+    }
+
+    /**
+     * @param tablebase solved 4x4 table consulted wherever it covers the board, null for none
+     */
+    static Supplier<MovePolicy> policy(String name, Tablebase tablebase) {
+        switch (name) {
+            case "random":
+                return tablebase == null ? MovePolicy::random : () -> tablebase.policy(MovePolicy.random());
+            case "expectimax":
+                return () -> new Expectimax(EXPECTIMAX_BUDGET, tablebase);
+            case "mcts":
+                return () -> new Mcts(MCTS_BUDGET, 1, tablebase); // the simulator already keeps every core busy
+            default:
+                throw new IllegalArgumentException("Unknown policy: " + name);
+        }
+    }
+
+    static void report(Result result) {
+        double secs = result.nanos / 1e9;
+        int[] sorted = Arrays.copyOf(result.scores, result.scores.length);
+        Arrays.sort(sorted);
+        long total = 0;
+        for (int score : sorted) {
+            total += score;
+        }
+        System.out.printf("%d games, %d moves in %.2f s, checksum %08x%n", result.games(), result.moves,
+                secs, Arrays.hashCode(result.scores));
+        System.out.printf("%.0f games/s, %.0f moves/s%n", result.games() / secs, result.moves / secs);
+        if (sorted.length == 0) {
+            return;
+        }
+        System.out.printf("Score: min %d, mean %.1f, p50 %d, p90 %d, p99 %d, max %d%n",
+                sorted[0], (double) total / sorted.length, percentile(sorted, 50),
+                percentile(sorted, 90), percentile(sorted, 99), sorted[sorted.length - 1]);
+        System.out.println("Max tile:");
+        for (int pow = 1; pow < result.maxTiles.length; pow++) {
+            if (result.maxTiles[pow] > 0) {
+                System.out.printf("%8d: %d (%.2f%%)%n", 1 << pow, result.maxTiles[pow],
+                        100.0 * result.maxTiles[pow] / result.games());
+            }
+        }
+    }
+
+    private static int percentile(int[] sorted, int pct) {
+        return sorted[Math.min(sorted.length - 1, (int) ((long) sorted.length * pct / 100))];
+    }
+
+    public static void main(String[] args) throws IOException {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        String policy = args.length > 1 ? args[1] : "random";
+        int threads = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+        Leaderboard leaderboard = null;
+        Path exportPath = null;
+        Path tablebasePath = null;
+        for (int i = 4; i < args.length; i++) {
+            if (args[i].equals("record")) {
+                leaderboard = Leaderboard.get();
+            } else if (args[i].startsWith("export=")) {
+                exportPath = Paths.get(args[i].substring("export=".length()));
+            } else if (args[i].startsWith("tablebase=")) {
+                tablebasePath = Paths.get(args[i].substring("tablebase=".length()));
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        System.out.printf("Seed %d%n", seed);
+        Tablebase tablebase = tablebasePath == null ? null : Tablebase.open(tablebasePath);
+        try {
+            if (tablebase != null && tablebase.size() != 4) {
+                throw new IllegalArgumentException(tablebasePath + " is not a 4x4 tablebase");
+            }
+            if (exportPath == null) {
+                report(run(games, policy(policy, tablebase), threads, seed, leaderboard, null));
+                return;
+            }
+            try (TrainingSet export = new TrainingSet(exportPath)) {
+                report(run(games, policy(policy, tablebase), threads, seed, leaderboard, export));
+            }
+            System.out.printf("Moves written to %s%n", exportPath);
+        } finally {
+            if (tablebase != null) {
+                tablebase.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,644 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exact chance of making a target tile from every position of a small board,
+ * playing perfectly against spawns of a 2 (90%) or a 4 (10%) in a uniformly
+ * random empty cell, like the engines. Covers every board whose tiles are all
+ * below the target: all of 3x3 up to a target of 512, and 4x4 for targets up
+ * to 8, which is as far as one 2 GB mapping goes.
+ * A position is stored at index sum(pow(cell) * target^cell), so a probe is
+ * one read from a memory-mapped file of 4-byte floats after a 64-byte header:
+ *   0  magic, version, board size, target pow
+ *   16 phase and next layer, the checkpoint
+ * A move plus its spawn always raises the sum of the tiles, so positions are
+ * solved in layers of equal sum, highest first, each layer split across threads.
+ * Layers are gathered a window at a time into a buffer of at most WINDOW
+ * states (or the largest layer), so solving needs little beyond the file.
+ * Before that, a forward pass from the opening positions marks the reachable
+ * ones; the rest hold NaN and are never solved. The checkpoint is written after
+ * a layer, at most every few seconds, once the values before it are on disk,
+ * so a stopped run picks up from its last checkpoint.
+ * Expectimax and Mcts take a solved 4x4 table and search only the moves it
+ * rates best wherever it covers the board. A 4x4 table of target 8 covers
+ * boards of 2s and 4s only, which is a game's opening: the first 8 shows up
+ * after 9 moves on average (18 at most over 200 seeded Expectimax games),
+ * and from then on bestMoves returns 0 and the search runs as without it.
+ * Usage: java Tablebase [size] [target tile] [file] [threads]
+ * @author Alan Huynh
+ */
+
+final class Tablebase implements Closeable {
+    private static final Game.Direction[] DIRECTIONS = Game.Direction.values();
+    private static final int MAGIC = 0x32303438; // "2048"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int MARKING = 1;
+    private static final int SOLVING = 2;
+    private static final int SOLVED = 3;
+    private static final int BLOCK = 1 << 12; // states a worker claims at a time
+    private static final int WINDOW = 1 << 24; // states gathered per pass over the table, 64 MB
+    private static final long CHECKPOINT_NANOS = 10000000000L;
+    private static final float FOUR_CHANCE = 0.1f;
+    private static final int WON = -1; // move results
+    private static final int UNCHANGED = 0;
+    private static final int MOVED = 1;
+
+    private final int size;
+    private final int cells;
+    private final int target; // target pow, also the base of the index
+    private final int states;
+    private final int[] place; // target^cell
+    private final int[] linePlace; // target^k
+    private final int[] slid; // every line slid toward k = 0, -1 where it makes the target
+    private final int[] lineLayer; // sum of a line's tiles / 2
+    private final FileChannel channel;
+    private final MappedByteBuffer values;
+
+    /**
+     * Opens a tablebase file, creating it if it does not exist. Call solve()
+     * to generate it or to resume a run that was stopped.
+     * @param size board width and height
+     * @param targetPow exponent of the target tile, at least 3
+     * @throws IllegalArgumentException if the table would not fit one mapping
+     * @throws IOException if the file holds a different table
+     */
+    Tablebase(Path file, int size, int targetPow) throws IOException {
+        Engine.checkSize(size);
+        if (targetPow < 3 || targetPow > Bitboard.MAX_POW) {
+            throw new IllegalArgumentException("Target tile must be between 8 and " + (1 << Bitboard.MAX_POW));
+        }
+        this.size = size;
+        cells = size * size;
+        target = targetPow;
+        if (Math.pow(target, cells) * 4 + HEADER_BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A " + size + "x" + size + " tablebase up to " + (1 << target)
+                    + " has too many positions");
+        }
+        place = new int[cells + 1];
+        place[0] = 1;
+        for (int c = 1; c <= cells; c++) {
+            place[c] = place[c - 1] * target;
+        }
+        states = place[cells];
+        linePlace = new int[size + 1];
+        linePlace[0] = 1;
+        for (int k = 1; k <= size; k++) {
+            linePlace[k] = linePlace[k - 1] * target;
+        }
+        slid = new int[linePlace[size]];
+        lineLayer = new int[linePlace[size]];
+        for (int line = 0; line < slid.length; line++) {
+            slid[line] = slide(line);
+            for (int k = 0; k < size; k++) {
+                lineLayer[line] += (1 << (line / linePlace[k] % target)) >>> 1;
+            }
+        }
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        values = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + 4L * states);
+        values.order(ByteOrder.LITTLE_ENDIAN);
+        if (values.getInt(0) == 0) { // new, or a run stopped before its first checkpoint
+            create();
+        } else if (values.getInt(0) != MAGIC || values.getInt(4) != VERSION || values.getInt(8) != size
+                || values.getInt(12) != target) {
+            channel.close();
+            throw new IOException(file + " is not a " + size + "x" + size + " tablebase up to " + (1 << target));
+        }
+    }
+
+    /**
+     * Opens a tablebase that has been solved, reading its size and target from the header.
+     * @throws IOException if the file is not a tablebase or is not solved yet
+     */
+    static Tablebase open(Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && in.read(header) >= 0) {
+                // read the whole header
+            }
+        }
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException(file + " is not a tablebase");
+        }
+        Tablebase tablebase = new Tablebase(file, header.getInt(8), header.getInt(12));
+        if (!tablebase.isSolved()) {
+            tablebase.close();
+            throw new IOException(file + " is not solved yet; run java Tablebase to finish it");
+        }
+        return tablebase;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the line with its tiles slid toward k = 0, as a shift would, or -1 if that makes the target
+     */
+    private int slide(int line) {
+        int out = 0;
+        int next = 0;
+        int last = 0; // tile at next - 1, 0 once it has merged
+        for (int k = 0; k < size; k++) {
+            int pow = line / linePlace[k] % target;
+            if (pow == 0) {
+                continue;
+            }
+            if (pow == last) {
+                if (pow + 1 >= target) {
+                    return -1;
+                }
+                out += linePlace[next - 1];
+                last = 0;
+            } else {
+                out += pow * linePlace[next];
+                last = pow;
+                next++;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Marks every position unreachable but the opening ones, then writes the header.
+     */
+    private void create() {
+        for (int state = 0; state < states; state++) {
+            values.putFloat(offset(state), Float.NaN);
+        }
+        for (int first = 0; first < cells; first++) {
+            for (int second = first + 1; second < cells; second++) {
+                for (int a = 1; a <= 2; a++) {
+                    for (int b = 1; b <= 2; b++) {
+                        values.putFloat(offset(a * place[first] + b * place[second]), 0f);
+                    }
+                }
+            }
+        }
+        values.force();
+        values.putInt(4, VERSION);
+        values.putInt(8, size);
+        values.putInt(12, target);
+        checkpoint(MARKING, 0);
+        values.putInt(0, MAGIC);
+        values.force();
+    }
+
+    private void checkpoint(int phase, int layer) {
+        values.putInt(16, phase);
+        values.putInt(20, layer);
+    }
+
+    boolean isSolved() {
+        return values.getInt(16) == SOLVED;
+    }
+
+    /**
+     * Generates the table from the last checkpoint on. Returns once it is solved.
+     */
+    void solve(int threads) throws InterruptedException {
+        // count the states in every layer, sum of tiles / 2
+        int layers = cells << (target - 2);
+        int[] layerStart = new int[layers + 2];
+        for (int state = 0; state < states; state++) {
+            layerStart[layer(state) + 1]++;
+        }
+        int largest = 0;
+        for (int l = 0; l <= layers; l++) {
+            largest = Math.max(largest, layerStart[l + 1]);
+            layerStart[l + 1] += layerStart[l];
+        }
+        int[] order = new int[Math.max(largest, Math.min(WINDOW, states))];
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            long lastCheckpoint = System.nanoTime();
+            if (values.getInt(16) == MARKING) {
+                long done = layerStart[values.getInt(20)];
+                int base = 0; // layerStart of the first layer in order
+                for (int l = values.getInt(20), end = l; l <= layers; l++) {
+                    if (l == end) { // gather the next window, layers [l, end)
+                        end = l + 1;
+                        while (end <= layers && layerStart[end + 1] - layerStart[l] <= order.length) {
+                            end++;
+                        }
+                        gather(layerStart, l, end, order);
+                        base = layerStart[l];
+                    }
+                    runLayer(pool, threads, order, layerStart[l] - base, layerStart[l + 1] - base, false);
+                    done += layerStart[l + 1] - layerStart[l];
+                    if (l == layers || System.nanoTime() - lastCheckpoint > CHECKPOINT_NANOS) {
+                        values.force();
+                        checkpoint(l == layers ? SOLVING : MARKING, l == layers ? layers : l + 1);
+                        values.force();
+                        lastCheckpoint = System.nanoTime();
+                        System.out.printf("marking reachable: %.1f%%%n", 100.0 * done / states);
+                    }
+                }
+            }
+            if (values.getInt(16) == SOLVING) {
+                long done = states - layerStart[values.getInt(20) + 1];
+                int base = 0;
+                for (int l = values.getInt(20), start = l + 1; l >= 0; l--) {
+                    if (l < start) { // gather the next window, layers [start, l]
+                        start = l;
+                        while (start > 0 && layerStart[l + 1] - layerStart[start - 1] <= order.length) {
+                            start--;
+                        }
+                        gather(layerStart, start, l + 1, order);
+                        base = layerStart[start];
+                    }
+                    runLayer(pool, threads, order, layerStart[l] - base, layerStart[l + 1] - base, true);
+                    done += layerStart[l + 1] - layerStart[l];
+                    if (l == 0 || System.nanoTime() - lastCheckpoint > CHECKPOINT_NANOS) {
+                        values.force();
+                        checkpoint(l == 0 ? SOLVED : SOLVING, l - 1);
+                        values.force();
+                        lastCheckpoint = System.nanoTime();
+                        System.out.printf("solving: %.1f%%%n", 100.0 * done / states);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Fills order with the states of layers [from, to), grouped by layer, in one pass over the table.
+     */
+    private void gather(int[] layerStart, int from, int to, int[] order) {
+        int[] filled = Arrays.copyOfRange(layerStart, from, to);
+        int base = layerStart[from];
+        for (int state = 0; state < states; state++) {
+            int l = layer(state);
+            if (l >= from && l < to) {
+                order[filled[l - from]++ - base] = state;
+            }
+        }
+    }
+
+    /**
+     * @return sum of the tiles of a state / 2, a row at a time
+     */
+    private int layer(int state) {
+        int sum = 0;
+        for (int row = 0; row < size; row++) {
+            sum += lineLayer[state % lineLayer.length];
+            state /= lineLayer.length;
+        }
+        return sum;
+    }
+
+    /**
+     * Marks the successors of, or solves, the states order[from, to) on every thread.
+     * They are all in one layer, so they only read and write other layers.
+     */
+    private void runLayer(ExecutorService pool, int threads, int[] order, int from, int to, boolean solving)
+            throws InterruptedException {
+        AtomicInteger cursor = new AtomicInteger(from);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(pool.submit(() -> {
+                byte[] pows = new byte[cells];
+                byte[] moved = new byte[cells];
+                int start;
+                while ((start = cursor.getAndAdd(BLOCK)) < to) {
+                    for (int i = start; i < Math.min(start + BLOCK, to); i++) {
+                        int state = order[i];
+                        if (Float.isNaN(value(state))) {
+                            continue; // unreachable
+                        }
+                        decode(state, pows);
+                        if (solving) {
+                            values.putFloat(offset(state), best(pows, moved));
+                        } else {
+                            markSuccessors(pows, moved);
+                        }
+                    }
+                }
+            }));
+        }
+        try {
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Tablebase worker failed", e.getCause());
+        }
+    }
+
+    private void markSuccessors(byte[] pows, byte[] moved) {
+        for (Game.Direction direction : DIRECTIONS) {
+            if (move(pows, direction, moved) != MOVED) {
+                continue;
+            }
+            int base = index(moved);
+            for (int c = 0; c < cells; c++) {
+                if (moved[c] == 0) {
+                    mark(base + place[c]);
+                    mark(base + 2 * place[c]);
+                }
+            }
+        }
+    }
+
+    private void mark(int state) {
+        if (Float.isNaN(value(state))) {
+            values.putFloat(offset(state), 0f); // other threads only ever write the same 0
+        }
+    }
+
+    /**
+     * @return chance of making the target from the best move, 0 if there is none
+     */
+    private float best(byte[] pows, byte[] moved) {
+        float best = 0f;
+        for (Game.Direction direction : DIRECTIONS) {
+            best = Math.max(best, afterMove(pows, direction, moved));
+        }
+        return best;
+    }
+
+    /**
+     * @return chance of making the target after a move and its spawn, -1 if the move changes nothing
+     */
+    private float afterMove(byte[] pows, Game.Direction direction, byte[] moved) {
+        int result = move(pows, direction, moved);
+        if (result != MOVED) {
+            return result == WON ? 1f : -1f;
+        }
+        int base = index(moved);
+        double total = 0;
+        int empty = 0;
+        for (int c = 0; c < cells; c++) {
+            if (moved[c] == 0) {
+                empty++; // a move always leaves a cell empty
+                total += (1 - FOUR_CHANCE) * value(base + place[c]) + FOUR_CHANCE * value(base + 2 * place[c]);
+            }
+        }
+        return (float) (total / empty);
+    }
+
+    /**
+     * Moves pows into moved, a line at a time through the slide table.
+     * @return MOVED, UNCHANGED, or WON if the move makes the target, leaving moved partly written
+     */
+    private int move(byte[] pows, Game.Direction direction, byte[] moved) {
+        boolean changed = false;
+        for (int line = 0; line < size; line++) {
+            int code = 0;
+            for (int k = 0; k < size; k++) {
+                code += pows[Engine.lineCell(size, direction, line, k)] * linePlace[k];
+            }
+            int after = slid[code];
+            if (after < 0) {
+                return WON;
+            }
+            changed |= after != code;
+            for (int k = 0; k < size; k++) {
+                moved[Engine.lineCell(size, direction, line, k)] = (byte) (after % target);
+                after /= target;
+            }
+        }
+        return changed ? MOVED : UNCHANGED;
+    }
+
+    private int index(byte[] pows) {
+        int state = 0;
+        for (int c = 0; c < cells; c++) {
+            state += pows[c] * place[c];
+        }
+        return state;
+    }
+
+    private void decode(int state, byte[] pows) {
+        for (int c = 0; c < cells; c++) {
+            pows[c] = (byte) (state % target);
+            state /= target;
+        }
+    }
+
+    private static int offset(int state) {
+        return HEADER_BYTES + (state << 2);
+    }
+
+    private float value(int state) {
+        return values.getFloat(offset(state));
+    }
+
+    /**
+     * @param pows exponents by cell, 0 where empty
+     * @return chance of making the target with perfect play, NaN if the board
+     * is the wrong size, already has the target, cannot be reached, or is not solved yet
+     */
+    float probe(byte[] pows) {
+        if (pows.length != cells || !isSolved()) {
+            return Float.NaN;
+        }
+        for (byte pow : pows) {
+            if (pow < 0 || pow >= target) {
+                return Float.NaN;
+            }
+        }
+        return value(index(pows));
+    }
+
+    float probe(Engine engine) {
+        if (engine.size() != size || !isSolved()) {
+            return Float.NaN;
+        }
+        int state = 0;
+        for (int c = cells - 1; c >= 0; c--) {
+            int pow = engine.getPow(c / size, c % size);
+            if (pow >= target) {
+                return Float.NaN;
+            }
+            state = state * target + pow;
+        }
+        return value(state);
+    }
+
+    /**
+     * @param board packed 4x4 board, see Bitboard
+     */
+    float probe(long board) {
+        int state = size == 4 && isSolved() ? index(board) : -1;
+        return state < 0 ? Float.NaN : value(state);
+    }
+
+    /**
+     * @return the state of a packed board, -1 if a tile is at or above the target
+     */
+    private int index(long board) {
+        int state = 0;
+        for (int c = 15; c >= 0; c--) {
+            int pow = (int) (board >>> (c << 2)) & 0xF;
+            if (pow >= target) {
+                return -1;
+            }
+            state = state * target + pow;
+        }
+        return state;
+    }
+
+    /**
+     * @return the move most likely to make the target, null where probe() gives NaN or nothing moves
+     */
+    Game.Direction bestMove(byte[] pows) {
+        if (Float.isNaN(probe(pows))) {
+            return null;
+        }
+        byte[] moved = new byte[cells];
+        Game.Direction best = null;
+        float bestValue = -1f;
+        for (Game.Direction direction : DIRECTIONS) {
+            float value = afterMove(pows, direction, moved);
+            if (value > bestValue) {
+                best = direction;
+                bestValue = value;
+            }
+        }
+        return best;
+    }
+
+    Game.Direction bestMove(Engine engine) {
+        return engine.size() == size ? bestMove(pows(engine)) : null;
+    }
+
+    /**
+     * Moves that keep the best chance of making the target, for a search to
+     * choose among. Allocates nothing, so any number of threads can ask.
+     * @param board packed 4x4 board, see Bitboard
+     * @return directions by bit (Direction.ordinal()), 0 where probe() gives NaN or nothing moves
+     */
+    int bestMoves(long board) {
+        if (Float.isNaN(probe(board))) {
+            return 0;
+        }
+        int best = 0;
+        float bestValue = -1f;
+        for (Game.Direction direction : DIRECTIONS) {
+            long moved = Bitboard.move(board, direction);
+            if (moved == board) {
+                continue;
+            }
+            float value = afterMove(moved);
+            if (value > bestValue) {
+                best = 1 << direction.ordinal();
+                bestValue = value;
+            } else if (value == bestValue) {
+                best |= 1 << direction.ordinal();
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return chance of making the target after a packed move and its spawn
+     */
+    private float afterMove(long moved) {
+        if (Bitboard.maxPow(moved) >= target) {
+            return 1f;
+        }
+        long empty = Bitboard.emptyMask(moved);
+        int open = Long.bitCount(empty);
+        double total = 0;
+        while (empty != 0) {
+            long bit = empty & -empty;
+            empty ^= bit;
+            total += (1 - FOUR_CHANCE) * value(index(moved | bit)) + FOUR_CHANCE * value(index(moved | bit << 1));
+        }
+        return (float) (total / open);
+    }
+
+    /**
+     * Perfect play for a 4x4 table, handing positions it does not cover
+     * (e.g. once the target is made) to another policy.
+     */
+    MovePolicy policy(MovePolicy fallback) {
+        if (size != 4) {
+            throw new IllegalStateException("Only a 4x4 tablebase plays packed boards");
+        }
+        return (board, randy) -> {
+            int best = bestMoves(board);
+            return best != 0 ? DIRECTIONS[Integer.numberOfTrailingZeros(best)] : fallback.choose(board, randy);
+        };
+    }
+
+    private static byte[] pows(Engine engine) {
+        byte[] pows = new byte[engine.size() * engine.size()];
+        for (int c = 0; c < pows.length; c++) {
+            pows[c] = (byte) engine.getPow(c / engine.size(), c % engine.size());
+        }
+        return pows;
+    }
+
+    /**
+     * @return chance of making the target from a new game, over both opening tiles
+     */
+    float newGame() {
+        double total = 0;
+        double pairs = cells * (cells - 1) / 2.0;
+        for (int first = 0; first < cells; first++) {
+            for (int second = first + 1; second < cells; second++) {
+                for (int a = 1; a <= 2; a++) {
+                    for (int b = 1; b <= 2; b++) {
+                        double chance = (a == 2 ? FOUR_CHANCE : 1 - FOUR_CHANCE)
+                                * (b == 2 ? FOUR_CHANCE : 1 - FOUR_CHANCE);
+                        total += chance * value(a * place[first] + b * place[second]);
+                    }
+                }
+            }
+        }
+        return (float) (total / pairs);
+    }
+
+    @Override
+    public void close() throws IOException {
+        values.force();
+        channel.close();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int targetTile = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+        Path file = Paths.get(args.length > 2 ? args[2] : "tablebase-" + size + "x" + size + "-" + targetTile + ".bin");
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        if (Integer.bitCount(targetTile) != 1) {
+            throw new IllegalArgumentException("Target tile must be a power of two: " + targetTile);
+        }
+        long start = System.nanoTime();
+        try (Tablebase tablebase = new Tablebase(file, size, Integer.numberOfTrailingZeros(targetTile))) {
+            if (!tablebase.isSolved()) {
+                System.out.printf("Solving %dx%d up to %d in %s on %d threads%n", size, size, targetTile, file,
+                        threads);
+                tablebase.solve(threads);
+                System.out.printf("Solved in %.1f s%n", (System.nanoTime() - start) / 1e9);
+            }
+            System.out.printf("Chance of making %d from a new %dx%d game: %.6f%n", targetTile, size, size,
+                    tablebase.newGame());
+            Engine engine = Engine.create(size, new Random());
+            System.out.printf("This one: %.6f, best move %s%n", tablebase.probe(engine),
+                    tablebase.bestMove(engine));
+        }
+    }
+}
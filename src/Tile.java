@@ -2,18 +2,40 @@ import java.awt.Color;
 
 /**
  * Tile object
+ * One shared instance per exponent, with its value, label and color worked
+ * out up front, so boards and painting never allocate tiles.
  * @author Justin Huynh
  */
 
-class Tile {
-    private int pow;
+final class Tile {
+    static final int MAX_POW = 17;
+    private static final Tile[] tiles = new Tile[MAX_POW + 1];
+    private static final Color darkTile = new Color(32, 32, 32); // 4096+
 
-    Tile(boolean startsAsFour) {
-        pow = startsAsFour ? 2 : 1;
+    private final int pow;
+    private final int value;
+    private final String label;
+    private final Color color;
+
+    static {
+        for (int pow = 1; pow <= MAX_POW; pow++) {
+            tiles[pow] = new Tile(pow);
+        }
+    }
+
+    private Tile(int pow) {
+        this.pow = pow;
+        this.value = 1 << pow;
+        this.label = String.valueOf(value);
+        this.color = colorOf(pow);
     }
 
-    void increasePow() {
-        pow++;
+    /**
+     * @param pow exponent, 0 for an empty cell
+     * @return the shared tile, or null if pow is 0
+     */
+    static Tile of(int pow) {
+        return tiles[pow];
     }
 
     int getPow() {
@@ -21,15 +43,19 @@ class Tile {
     }
 
     int value() {
-        return (int) Math.pow(2, pow);
+        return value;
     }
 
     @Override
     public String toString() {
-        return String.valueOf(this.value());
+        return label;
     }
 
     Color getColor() {
+        return color;
+    }
+
+    private static Color colorOf(int pow) {
         switch (pow) {
             case 1:  return new Color(238,228,218); // 2
             case 2:  return new Color(237,224,200); // 4
@@ -43,6 +69,6 @@ class Tile {
             case 10: return new Color(237,197,63);  // 1024
             case 11: return new Color(237,194,46);  // 2048
         }
-        return new Color(32, 32, 32);               // 4096+
+        return darkTile;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,73 @@
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Pre-rendered tile images, so drawing a tile is a single drawImage.
+ * Sprites are keyed by exponent and color mode for the current square size;
+ * a new size drops every sprite and they are re-rendered on first use.
+ * Normal sprites carry the tile color and are opaque. Color mode sprites are
+ * just the number on a transparent background, since that mode recolors
+ * tiles at random on every update.
+ * Only used by the BoardCanvas render thread.
+ * @author Justin Huynh
+ */
+
+final class TileSprites {
+    private final Image[] sprites = new Image[2 * (Tile.MAX_POW + 1)];
+    private int size;
+
+    /**
+     * @param tile tile to draw
+     * @param squareSize current square size
+     * @param colorMode whether the tile background is drawn by the caller
+     * @return a squareSize x squareSize image of the tile
+     */
+    Image get(Tile tile, int squareSize, boolean colorMode) {
+        if (squareSize != size) {
+            Arrays.fill(sprites, null);
+            size = squareSize;
+        }
+        int key = tile.getPow() + (colorMode ? Tile.MAX_POW + 1 : 0);
+        Image sprite = sprites[key];
+        if (sprite == null) {
+            sprite = render(tile, squareSize, colorMode);
+            sprites[key] = sprite;
+        }
+        return sprite;
+    }
+
+    /**
+     * Drops every sprite, e.g. after a font change; they are re-rendered on first use.
+     */
+    void clear() {
+        Arrays.fill(sprites, null);
+    }
+
+    private static Image render(Tile tile, int size, boolean colorMode) {
+        BufferedImage image = createImage(size, colorMode ? Transparency.TRANSLUCENT : Transparency.OPAQUE);
+        Graphics2D g2 = image.createGraphics();
+        if (!colorMode) {
+            g2.setColor(tile.getColor());
+            g2.fillRect(0, 0, size, size);
+        }
+        GameUI.paintNumber(g2, tile.toString(), tile.getPow(), size, size, size);
+        g2.dispose();
+        return image;
+    }
+
+    /**
+     * Images in the screen's own format can be cached in video memory by Java2D.
+     */
+    private static BufferedImage createImage(int size, int transparency) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return new BufferedImage(size, size, transparency == Transparency.OPAQUE
+                    ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        }
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                .getDefaultConfiguration().createCompatibleImage(size, size, transparency);
+    }
+}
@@ -0,0 +1,237 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Self-play transitions for training move prediction, as fixed-width records
+ * in memory-mapped, append-only segment files ("segment-000000.bin", ...).
+ * A record is 24 little-endian bytes, so the files load as they are into
+ * e.g. numpy with dtype [board u8, next u8, reward i4, direction u1, terminal u1, pad u2]:
+ *   0  board     Bitboard before the move
+ *   8  next      Bitboard after the move and its spawn
+ *   16 reward    score the move earned
+ *   20 direction Direction.ordinal() of the move
+ *   21 terminal  1 if the game was lost after it
+ * Each producer thread claims a chunk of records with one atomic add and
+ * fills it with plain writes, so producers never lock or wait on each other.
+ * A chunk a producer leaves partly empty is a run of zero records, which
+ * readers skip (a real board is never 0).
+ * @author Alan Huynh
+ */
+
+final class TrainingSet implements Closeable {
+    static final int RECORD_BYTES = 24;
+    private static final int SEGMENT_RECORDS = 1 << 25; // 768 MB per segment file
+    private static final int CHUNK_RECORDS = 1 << 12; // records a producer claims at a time
+    private static final Game.Direction[] DIRECTIONS = Game.Direction.values();
+    private static final Metrics.Counter diskBytes = Metrics.counter("disk.bytes");
+
+    private final Path directory;
+    private final AtomicLong claimed = new AtomicLong(); // records handed out to producers
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private final List<FileChannel> channels = new ArrayList<>();
+
+    /**
+     * One thread's writer. Not thread safe; make one per producer thread.
+     */
+    final class Producer implements Closeable {
+        private MappedByteBuffer segment;
+        private int at; // byte offset of the next record in segment
+        private int end; // byte offset past the claimed chunk
+
+        private Producer() {
+        }
+
+        /**
+         * Appends one transition.
+         */
+        void add(long board, Game.Direction direction, int reward, long next, boolean terminal) {
+            if (at == end) {
+                claim();
+            }
+            segment.putLong(at, board);
+            segment.putLong(at + 8, next);
+            segment.putInt(at + 16, reward);
+            segment.put(at + 20, (byte) direction.ordinal());
+            segment.put(at + 21, (byte) (terminal ? 1 : 0));
+            at += RECORD_BYTES;
+        }
+
+        private void claim() {
+            long first = claimed.getAndAdd(CHUNK_RECORDS);
+            segment = segment((int) (first / SEGMENT_RECORDS));
+            at = (int) (first % SEGMENT_RECORDS) * RECORD_BYTES;
+            end = at + CHUNK_RECORDS * RECORD_BYTES;
+        }
+
+        /**
+         * Gives up the rest of the chunk; it stays zero and readers skip it.
+         */
+        @Override
+        public void close() {
+            end = at;
+        }
+    }
+
+    /**
+     * Opens a new data set, replacing any segments already in the directory.
+     */
+    TrainingSet(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        for (int i = 0; Files.deleteIfExists(segmentPath(directory, i)); i++) {
+            // clear out an older data set
+        }
+    }
+
+    Producer producer() {
+        return new Producer();
+    }
+
+    private static Path segmentPath(Path directory, int segment) {
+        return directory.resolve(String.format("segment-%06d.bin", segment));
+    }
+
+    /**
+     * @return the segment, mapping it and any before it on first use
+     */
+    private MappedByteBuffer segment(int segment) {
+        MappedByteBuffer[] mapped = segments;
+        if (segment < mapped.length) {
+            return mapped[segment];
+        }
+        synchronized (this) { // once per segment, not per record
+            mapped = segments;
+            if (segment >= mapped.length) {
+                mapped = Arrays.copyOf(mapped, segment + 1);
+                try {
+                    for (int i = segments.length; i <= segment; i++) {
+                        FileChannel channel = FileChannel.open(segmentPath(directory, i), StandardOpenOption.CREATE,
+                                StandardOpenOption.READ, StandardOpenOption.WRITE);
+                        channels.add(channel);
+                        mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                                (long) SEGMENT_RECORDS * RECORD_BYTES);
+                        mapped[i].order(ByteOrder.LITTLE_ENDIAN);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Can't map " + directory, e);
+                }
+                segments = mapped;
+            }
+            return mapped[segment];
+        }
+    }
+
+    /**
+     * Flushes every segment and trims the last one to the records claimed.
+     * Call once every producer is done.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        long records = claimed.get();
+        for (int i = 0; i < channels.size(); i++) {
+            segments[i].force();
+            long inSegment = Math.min(SEGMENT_RECORDS, records - (long) i * SEGMENT_RECORDS);
+            channels.get(i).truncate(Math.max(0, inSegment) * RECORD_BYTES);
+            channels.get(i).close();
+        }
+        channels.clear();
+        diskBytes.add(records * RECORD_BYTES);
+    }
+
+    /**
+     * Read-only view of a data set, mapped straight from the segment files:
+     * records are read in place, with no copy and no object per record.
+     * Safe to share between threads; the mappings go away when it is collected.
+     */
+    static final class Reader {
+        private final MappedByteBuffer[] segments;
+        private final long size;
+
+        Reader(Path directory) throws IOException {
+            List<MappedByteBuffer> mapped = new ArrayList<>();
+            long records = 0;
+            for (int i = 0; Files.exists(segmentPath(directory, i)); i++) {
+                try (FileChannel channel = FileChannel.open(segmentPath(directory, i), StandardOpenOption.READ)) {
+                    MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    segment.order(ByteOrder.LITTLE_ENDIAN);
+                    mapped.add(segment);
+                    records += channel.size() / RECORD_BYTES;
+                }
+            }
+            segments = mapped.toArray(new MappedByteBuffer[0]);
+            size = records;
+        }
+
+        /**
+         * @return records in the files, including skipped zero records
+         */
+        long size() {
+            return size;
+        }
+
+        /**
+         * @return false for a zero record left by a producer, which holds no transition
+         */
+        boolean isValid(long record) {
+            return board(record) != 0L;
+        }
+
+        long board(long record) {
+            return segment(record).getLong(offset(record));
+        }
+
+        long next(long record) {
+            return segment(record).getLong(offset(record) + 8);
+        }
+
+        int reward(long record) {
+            return segment(record).getInt(offset(record) + 16);
+        }
+
+        Game.Direction direction(long record) {
+            return DIRECTIONS[segment(record).get(offset(record) + 20)];
+        }
+
+        boolean isTerminal(long record) {
+            return segment(record).get(offset(record) + 21) != 0;
+        }
+
+        /**
+         * @return a uniformly random valid record, or -1 if there are none
+         */
+        long sample(Random randy) {
+            for (int tries = 0; tries < 64; tries++) { // zero records are rare, so this almost always hits
+                long record = (long) (randy.nextDouble() * size);
+                if (isValid(record)) {
+                    return record;
+                }
+            }
+            for (long record = 0; record < size; record++) {
+                if (isValid(record)) {
+                    return record;
+                }
+            }
+            return -1;
+        }
+
+        private MappedByteBuffer segment(long record) {
+            return segments[(int) (record / SEGMENT_RECORDS)];
+        }
+
+        private static int offset(long record) {
+            return (int) (record % SEGMENT_RECORDS) * RECORD_BYTES;
+        }
+    }
+}
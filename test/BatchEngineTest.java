@@ -0,0 +1,88 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNotNull;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * BatchEngine against Bitboards playing the same seeds, with each kernel.
+ * @author Alan Huynh
+ */
+public class BatchEngineTest {
+    private static final Game.Direction[] DIRECTIONS = Game.Direction.values();
+    private static final int GAMES = 37; // not a multiple of any vector length, so the tail is covered
+
+    @Test
+    public void scalarMatchesBitboard() {
+        playAlongside(BatchEngine.SCALAR);
+    }
+
+    @Test
+    public void vectorMatchesBitboard() {
+        assumeNotNull(BatchEngine.VECTOR); // built for Java 8, or run without jdk.incubator.vector
+        playAlongside(BatchEngine.VECTOR);
+    }
+
+    @Test
+    public void kernelsAgreeOnEveryBoard() {
+        assumeNotNull(BatchEngine.VECTOR);
+        Random randy = new Random(2048);
+        long[] boards = new long[1001];
+        int[] directions = new int[boards.length];
+        for (int i = 0; i < boards.length; i++) {
+            boards[i] = randy.nextLong() & randy.nextLong(); // plenty of empty cells and pairs
+            directions[i] = randy.nextInt(4);
+        }
+        long[] scalarMoved = new long[boards.length];
+        int[] scalarGained = new int[boards.length];
+        BatchEngine.SCALAR.move(boards, directions, scalarMoved, scalarGained);
+        long[] vectorMoved = new long[boards.length];
+        int[] vectorGained = new int[boards.length];
+        BatchEngine.VECTOR.move(boards, directions, vectorMoved, vectorGained);
+        assertArrayEquals(scalarMoved, vectorMoved);
+        assertArrayEquals(scalarGained, vectorGained);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownDirections() {
+        new BatchEngine(new long[] {1, 2}).step(new int[] {0, 4});
+    }
+
+    private static void playAlongside(BatchEngine.Kernel kernel) {
+        long[] seeds = new long[GAMES];
+        Rng[] rngs = new Rng[GAMES];
+        Bitboard[] games = new Bitboard[GAMES];
+        for (int i = 0; i < GAMES; i++) {
+            seeds[i] = Rng.streamSeed(2048, i);
+            rngs[i] = new Rng(seeds[i]);
+            games[i] = new Bitboard(rngs[i]);
+        }
+        BatchEngine batch = new BatchEngine(seeds, kernel);
+        Random randy = new Random(2048);
+        int[] directions = new int[GAMES];
+        for (int step = 0; step < 3000; step++) {
+            for (int i = 0; i < GAMES; i++) {
+                directions[i] = randy.nextInt(4);
+            }
+            int[] deltas = batch.step(directions);
+            for (int i = 0; i < GAMES; i++) {
+                String where = "step " + step + " game " + i;
+                int before = games[i].getScore();
+                if (!games[i].checkLost()) {
+                    games[i].shift(DIRECTIONS[directions[i]]);
+                }
+                assertEquals(where, games[i].getBoard(), batch.getBoard(i));
+                assertEquals(where, games[i].getScore(), batch.getScore(i));
+                assertEquals(where, games[i].getScore() - before, deltas[i]);
+                assertEquals(where, games[i].checkLost(), batch.isDone(i));
+                assertEquals(where, rngs[i].getState(), batch.getRngState(i));
+            }
+        }
+        for (int i = 0; i < GAMES; i++) {
+            assertTrue("random play ends well within the steps", batch.isDone(i));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Merge pops and spawn fades worked out from Engine.trace, in every direction.
+ * @author Justin Huynh
+ */
+public class BoardCanvasTest {
+    private static final Game.Direction[] DIRECTIONS = Game.Direction.values();
+
+    @Test
+    public void mergePopsInEveryDirection() {
+        for (Game.Direction direction : DIRECTIONS) {
+            byte[] pows = new byte[16];
+            int landing; // where two 2s next to the wall merge
+            switch (direction) {
+                case UP:
+                    pows[1] = 1;
+                    pows[5] = 1;
+                    landing = 1;
+                    break;
+                case DOWN:
+                    pows[9] = 1;
+                    pows[13] = 1;
+                    landing = 13;
+                    break;
+                case LEFT:
+                    pows[4] = 1;
+                    pows[5] = 1;
+                    landing = 4;
+                    break;
+                default:
+                    pows[6] = 1;
+                    pows[7] = 1;
+                    landing = 7;
+                    break;
+            }
+            byte[] effects = effects(pows, 4, direction);
+            for (int cell = 0; cell < 16; cell++) {
+                assertEquals(direction + " cell " + cell, cell == landing ? BoardCanvas.merged : BoardCanvas.spawned,
+                        effects[cell]);
+            }
+        }
+    }
+
+    @Test
+    public void mergePopsPast32768On4x4() {
+        byte[] pows = new byte[16];
+        pows[0] = 15;
+        pows[1] = 15;
+        assertEquals(BoardCanvas.merged, effects(pows, 4, Game.Direction.LEFT)[0]);
+    }
+
+    @Test
+    public void effectsMatchTheEngines() {
+        Random randy = new Random(2048);
+        for (int size = Engine.MIN_SIZE; size <= Engine.MAX_SIZE; size++) {
+            for (int round = 0; round < 500; round++) {
+                byte[] pows = new byte[size * size];
+                for (int cell = 0; cell < pows.length; cell++) {
+                    pows[cell] = (byte) (randy.nextInt(3) == 0 ? 0 : 1 + randy.nextInt(3)); // plenty of pairs
+                }
+                for (Game.Direction direction : DIRECTIONS) {
+                    Engine engine = Engine.blank(size);
+                    for (int cell = 0; cell < pows.length; cell++) {
+                        if (pows[cell] != 0) {
+                            engine.place(cell, pows[cell]);
+                        }
+                    }
+                    engine.slide(direction);
+                    int[] targets = new int[pows.length];
+                    Engine.trace(pows, size, direction, targets);
+                    int[] landed = new int[pows.length];
+                    int[] landedPow = new int[pows.length];
+                    for (int cell = 0; cell < pows.length; cell++) {
+                        if (targets[cell] >= 0) {
+                            landed[targets[cell] >>> 1]++;
+                            landedPow[targets[cell] >>> 1] = pows[cell];
+                        }
+                    }
+                    byte[] effects = effects(pows, size, direction);
+                    for (int cell = 0; cell < pows.length; cell++) {
+                        String where = size + "x" + size + " " + direction + " cell " + cell;
+                        int after = engine.getPow(cell / size, cell % size);
+                        if (landed[cell] == 0) {
+                            assertEquals(where, 0, after);
+                            assertEquals(where, BoardCanvas.spawned, effects[cell]);
+                        } else {
+                            assertEquals(where, landed[cell] == 2 ? BoardCanvas.merged : 0, effects[cell]);
+                            assertEquals(where, landedPow[cell] + landed[cell] - 1, after);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static byte[] effects(byte[] pows, int size, Game.Direction direction) {
+        int[] targets = new int[pows.length];
+        Engine.trace(pows, size, direction, targets);
+        byte[] effects = new byte[pows.length];
+        BoardCanvas.effects(targets, effects);
+        return effects;
+    }
+}
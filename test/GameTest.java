@@ -0,0 +1,28 @@
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * The engine Game plays each size on.
+ * @author Alan Huynh
+ */
+public class GameTest {
+    @Test
+    public void tilesMergePast32768OnEverySize() {
+        for (int size = Engine.MIN_SIZE; size <= Engine.MAX_SIZE; size++) {
+            Engine engine = Game.newEngine(size, new Rng(size));
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    if (engine.getPow(row, col) != 0) {
+                        engine.place(row * size + col, 0);
+                    }
+                }
+            }
+            engine.place(0, 15);
+            engine.place(1, 15);
+            engine.slide(Game.Direction.LEFT);
+            assertEquals(size + "x" + size, 16, engine.getPow(0, 0));
+            assertEquals(size + "x" + size, 0, engine.getPow(0, 1));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * SessionStore against Bitboards playing the same seeds, through spills to disk and back.
+ * @author Alan Huynh
+ */
+public class SessionStoreTest {
+    private static final Game.Direction[] DIRECTIONS = Game.Direction.values();
+    private static final int SESSIONS = 64;
+    private static final int RESIDENT = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void spilledSessionsComeBackUnchanged() throws IOException {
+        SessionStore store = new SessionStore(RESIDENT, folder.getRoot().toPath());
+        Bitboard[] games = new Bitboard[SESSIONS];
+        SessionStore.Position position = new SessionStore.Position();
+        for (int i = 0; i < SESSIONS; i++) {
+            store.create(i + 1, i, position);
+            games[i] = new Bitboard(new Rng(i));
+            check("created " + i, games[i], 0, position);
+        }
+        assertTrue(store.spilled() >= SESSIONS - RESIDENT);
+
+        Random randy = new Random(2048);
+        int[] moves = new int[SESSIONS];
+        for (int round = 0; round < 2000; round++) {
+            int i = randy.nextInt(SESSIONS); // mostly sessions that were spilled
+            Game.Direction direction = DIRECTIONS[randy.nextInt(4)];
+            boolean moved = games[i].shift(direction);
+            moves[i] += moved ? 1 : 0;
+            assertEquals(moved ? 1 : 0, store.move(i + 1, direction, position));
+            check("round " + round + " session " + i, games[i], moves[i], position);
+        }
+        for (int i = 0; i < SESSIONS; i++) {
+            assertTrue(store.read(i + 1, position));
+            check("read " + i, games[i], moves[i], position);
+        }
+        assertEquals(SessionStore.MISSING, store.move(SESSIONS + 1, Game.Direction.UP, position));
+        assertTrue(store.resident() <= RESIDENT);
+    }
+
+    @Test
+    public void undoSurvivesASpill() throws IOException {
+        SessionStore store = new SessionStore(RESIDENT, folder.getRoot().toPath());
+        SessionStore.Position position = new SessionStore.Position();
+        store.create(1, 7, position);
+        for (int moves = 0; moves < 5; moves++) {
+            assertEquals(1, store.move(1, anyMove(position.board), position));
+        }
+        long before = position.board;
+        int score = position.score;
+        Game.Direction direction = anyMove(before);
+        assertEquals(1, store.move(1, direction, position));
+        long after = position.board;
+        for (int i = 2; i <= SESSIONS; i++) {
+            store.create(i, i, new SessionStore.Position()); // pushes session 1 out to disk
+        }
+        assertTrue(store.spilled() > 0);
+
+        assertEquals(1, store.undo(1, position));
+        assertEquals(before, position.board);
+        assertEquals(score, position.score);
+        assertEquals(5, position.moves);
+        assertEquals(0, store.undo(1, position)); // one step only, as for every size
+        assertEquals(before, position.board);
+
+        assertEquals(1, store.move(1, direction, position));
+        assertEquals("the RNG is restored too, so the same move spawns the same tile", after, position.board);
+        assertEquals(SessionStore.MISSING, store.undo(SESSIONS + 1, position));
+    }
+
+    private static Game.Direction anyMove(long board) {
+        return DIRECTIONS[Integer.numberOfTrailingZeros(Bitboard.legalMoves(board))];
+    }
+
+    private static void check(String where, Bitboard game, int moves, SessionStore.Position position) {
+        assertEquals(where, game.getBoard(), position.board);
+        assertEquals(where, game.getScore(), position.score);
+        assertEquals(where, moves, position.moves);
+    }
+}